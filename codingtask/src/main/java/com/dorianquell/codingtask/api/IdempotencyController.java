@@ -0,0 +1,22 @@
+package com.dorianquell.codingtask.api;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.dorianquell.codingtask.idempotency.IdempotencyStore;
+
+@RestController
+public class IdempotencyController {
+
+    @Autowired
+    IdempotencyStore idempotencyStore;
+
+    @GetMapping("metrics/idempotency")
+    public ResponseEntity<String> getMetrics() {
+        return new ResponseEntity<>(idempotencyStore.getMetrics().toString(4), HttpStatus.OK);
+    }
+
+}
@@ -1,5 +1,10 @@
 package com.dorianquell.codingtask.api;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.List;
 import java.util.Map;
 
 import org.hl7.fhir.r4.model.Patient;
@@ -10,39 +15,111 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestAttribute;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.dorianquell.codingtask.dao.PatientDataAccessService;
+import com.dorianquell.codingtask.idempotency.IdempotencyStore;
 import com.dorianquell.codingtask.model.PatientInput;
+import com.dorianquell.codingtask.monitoring.SearchProfile;
+import com.dorianquell.codingtask.monitoring.SlowRequestLog;
 import com.dorianquell.codingtask.processor.FHIRPatientProcessor;
+import com.dorianquell.codingtask.processor.StreamingPatientParser;
+import com.dorianquell.codingtask.tenant.TenantInterceptor;
 
 @RestController
+@RequestMapping({ "", "tenants/{tenant}" })
 public class PatientController {
 
     @Autowired
     PatientDataAccessService pda;
 
+    @Autowired
+    SlowRequestLog slowRequestLog;
+
+    @Autowired
+    IdempotencyStore idempotencyStore;
+
     @PutMapping
-    public ResponseEntity<String> createPatient(@RequestBody PatientInput patInput) {
+    public ResponseEntity<String> createPatient(@RequestBody PatientInput patInput,
+            @RequestHeader(value = IdempotencyStore.KEY_HEADER, required = false) String idempotencyKey,
+            @RequestAttribute(value = TenantInterceptor.TENANT_ID_ATTRIBUTE, required = false) String tenant,
+            @RequestAttribute(TenantInterceptor.CONNECTION_ATTRIBUTE) Connection connection) {
+        if (idempotencyKey != null)
+            return idempotencyStore.execute(tenant, idempotencyKey, patInput.toString(), connection,
+                () -> createPatient(patInput, connection));
+        return createPatient(patInput, connection);
+    }
+
+    private ResponseEntity<String> createPatient(PatientInput patInput, Connection connection) {
         Patient patient = FHIRPatientProcessor.createFHIRPatient(patInput);
-        if (pda.updatePatient(patient, pda.getDbConnection()))
+        if (pda.updatePatient(patient, connection))
             return new ResponseEntity<>("Patient stored with ID: " + patient.getId(), HttpStatus.OK);
         return new ResponseEntity<>("Patient could not be stored!", HttpStatus.BAD_REQUEST);
     }
 
+    @PutMapping("bulk")
+    public ResponseEntity<String> createPatients(InputStream body,
+            @RequestAttribute(TenantInterceptor.CONNECTION_ATTRIBUTE) Connection connection) {
+        try {
+            StreamingPatientParser.Result result =
+                    StreamingPatientParser.parse(body, patient -> pda.updatePatient(patient, connection));
+            return new ResponseEntity<>(result.getStored() + " patients stored, " + result.getRejected() + " rejected!",
+                HttpStatus.OK);
+        } catch (IOException e) {
+            return new ResponseEntity<>("Malformed patient data, patients before the error may have been stored!",
+                HttpStatus.BAD_REQUEST);
+        }
+    }
+
     @GetMapping("search")
-    public ResponseEntity<String> search(@RequestParam Map<String,String> allRequestParams){
-        JSONArray patients = pda.search(allRequestParams, pda.getDbConnection());
-        return new ResponseEntity<>(patients.toString(4), HttpStatus.OK); 
+    public ResponseEntity<String> search(@RequestParam Map<String,String> allRequestParams,
+            @RequestAttribute(TenantInterceptor.CONNECTION_ATTRIBUTE) Connection connection) {
+        SearchProfile profile = slowRequestLog.startProfile();
+        JSONArray patients = pda.search(allRequestParams, connection, profile);
+
+        long start = System.nanoTime();
+        String body = patients.toString(4);
+        long serialized = System.nanoTime() - start;
+        // Encoding the body only to get its size is left to the sampled searches
+        if (profile.isSampled())
+            profile.serialized(serialized, body.getBytes(StandardCharsets.UTF_8).length);
+        else
+            profile.serialized(serialized);
+        slowRequestLog.finish(profile, connection);
+        return new ResponseEntity<>(body, HttpStatus.OK);
     }
 
     @DeleteMapping
-    public ResponseEntity<String> deletePatient(@RequestParam String id) {
-        if (pda.deletePatient(id, pda.getDbConnection()))
+    public ResponseEntity<String> deletePatient(@RequestParam String id,
+            @RequestAttribute(TenantInterceptor.CONNECTION_ATTRIBUTE) Connection connection) {
+        if (pda.deletePatient(id, connection))
             return new ResponseEntity<>("Patient " + id + " deleted!", HttpStatus.OK);
         return new ResponseEntity<>("Could not delete Patient " + id, HttpStatus.BAD_REQUEST);
     }
+
+    @DeleteMapping("batch")
+    public ResponseEntity<String> deletePatients(@RequestBody List<String> ids,
+            @RequestAttribute(TenantInterceptor.CONNECTION_ATTRIBUTE) Connection connection) {
+        Integer deleted = pda.deletePatients(ids, connection);
+        if (deleted != null)
+            return new ResponseEntity<>(deleted + " patients deleted!", HttpStatus.OK);
+        return new ResponseEntity<>("Batch deletion aborted, some patients may not have been deleted!",
+            HttpStatus.BAD_REQUEST);
+    }
+
+    @DeleteMapping("search")
+    public ResponseEntity<String> deletePatientsBySearch(@RequestParam Map<String, String> allRequestParams,
+            @RequestAttribute(TenantInterceptor.CONNECTION_ATTRIBUTE) Connection connection) {
+        Integer deleted = pda.deletePatients(allRequestParams, connection);
+        if (deleted != null)
+            return new ResponseEntity<>(deleted + " patients deleted!", HttpStatus.OK);
+        return new ResponseEntity<>("Batch deletion aborted, some patients may not have been deleted!",
+            HttpStatus.BAD_REQUEST);
+    }
     
 }
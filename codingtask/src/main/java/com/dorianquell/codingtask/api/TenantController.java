@@ -0,0 +1,32 @@
+package com.dorianquell.codingtask.api;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.dorianquell.codingtask.tenant.Tenant;
+import com.dorianquell.codingtask.tenant.TenantRegistry;
+
+@RestController
+public class TenantController {
+
+    @Autowired
+    TenantRegistry registry;
+
+    @GetMapping("metrics/tenants")
+    public ResponseEntity<String> getMetrics() {
+        return new ResponseEntity<>(registry.getMetrics().toString(4), HttpStatus.OK);
+    }
+
+    @GetMapping("metrics/tenants/{tenant}")
+    public ResponseEntity<String> getMetrics(@PathVariable String tenant) {
+        Tenant t = registry.getTenant(tenant);
+        if (t != null)
+            return new ResponseEntity<>(t.getMetrics().toString(4), HttpStatus.OK);
+        return new ResponseEntity<>("Unknown tenant " + tenant, HttpStatus.NOT_FOUND);
+    }
+
+}
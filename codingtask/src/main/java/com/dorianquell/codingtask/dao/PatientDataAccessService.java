@@ -1,5 +1,6 @@
 package com.dorianquell.codingtask.dao;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
@@ -7,12 +8,16 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.time.Instant;
+import java.sql.Statement;
 import java.time.LocalDate;
 import java.time.Period;
+import java.time.YearMonth;
 import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -26,6 +31,8 @@ import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Repository;
 
+import com.dorianquell.codingtask.model.PatientRecord;
+import com.dorianquell.codingtask.monitoring.SearchProfile;
 import com.dorianquell.codingtask.processor.FHIRPatientProcessor;
 
 import lombok.Getter;
@@ -33,15 +40,34 @@ import lombok.Getter;
 @Repository("PatientDAO")
 public class PatientDataAccessService {
 
+    // Shared by all requests without a tenant, statements are only run while holding its lock
     @Getter
     private Connection dbConnection;
 
+    @Value("${dbfile:patientdata.db}")
+    private String dbfile;
+
     @Value("${tablename}")
     private String tablename;
 
     @Value("${viewname}")
     private String viewname;
 
+    @Value("${deletebatchsize:500}")
+    private int deleteBatchSize;
+
+    @Value("${partitioned:false}")
+    private boolean partitioned;
+
+    @Value("${readmirror:false}")
+    private boolean readMirror;
+
+    // In-memory copy of the patients used to answer searches, null if turned off
+    private PatientMirror mirror;
+
+    // Suffix of the monthly partition tables, e.g. patients_202204
+    private static final DateTimeFormatter PARTITION_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
     /**
      * Given a FHIR patient resource, the patient will be inserted into the database
      * 
@@ -52,22 +78,41 @@ public class PatientDataAccessService {
      * @return Boolean which indicates if the patient could be added or not
      */
     public Boolean addPatient(Patient patient, Connection connection) {
-        if (calculateAge(patient.getBirthDate()) >= 18) {
-            String insertSQL = "INSERT INTO " + tablename
-                    + " (id, firstname, lastname, gender, birthdate, date_created, fhir) VALUES(?,?,?,?,?,?,?)";
-            try {
-                PreparedStatement pstmt = connection.prepareStatement(insertSQL);
-                pstmt.setString(1, patient.getId());
-                pstmt.setString(2, patient.getName().get(0).getGivenAsSingleString());
-                pstmt.setString(3, patient.getName().get(0).getFamily());
-                pstmt.setString(4, patient.getGender().toString().toLowerCase());
-                pstmt.setString(5, patient.getBirthDateElement().asStringValue());
-                pstmt.setDate(6, new java.sql.Date(patient.getMeta().getLastUpdated().getTime()));
-                pstmt.setString(7, FHIRPatientProcessor.parseFHIR(patient));
-                pstmt.executeUpdate();
-                return true;
-            } catch (SQLException e) {
-                e.printStackTrace();
+        return addPatient(FHIRPatientProcessor.createPatientRecord(patient), connection);
+    }
+
+    /**
+     * Given a patient record, the patient will be inserted into the database
+     * 
+     * @param patient
+     *            The record with the column values and the FHIR json of the patient
+     * @param conncection
+     *            to the database
+     * @return Boolean which indicates if the patient could be added or not
+     */
+    public Boolean addPatient(PatientRecord patient, Connection connection) {
+        if (calculateAge(patient.getBirthdate()) >= 18) {
+            synchronized (connection) {
+                try {
+                    String insertSQL = "INSERT INTO " + getInsertTable(patient.getDateCreated(), connection)
+                            + " (id, firstname, lastname, gender, birthdate, date_created, fhir) VALUES(?,?,?,?,?,?,?)";
+                    PreparedStatement pstmt = connection.prepareStatement(insertSQL);
+                    pstmt.setString(1, patient.getId());
+                    pstmt.setString(2, patient.getFirstname());
+                    pstmt.setString(3, patient.getLastname());
+                    pstmt.setString(4, patient.getGender());
+                    pstmt.setString(5, patient.getBirthdate());
+                    pstmt.setDate(6, new java.sql.Date(patient.getDateCreated().getTime()));
+                    pstmt.setString(7, patient.getFhir());
+                    pstmt.executeUpdate();
+
+                    if (isMirrored(connection))
+                        mirror.put(patient.getId(), patient.getFirstname(), patient.getLastname(), patient.getGender(),
+                            patient.getBirthdate(), patient.getDateCreated().getTime(), patient.getFhir());
+                    return true;
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
             }
         }
         return false;
@@ -83,21 +128,26 @@ public class PatientDataAccessService {
      * @return boolean showing if the deletion was successful
      */
     public Boolean deletePatient(String id, Connection connection) {
-        String deleteSQL = "DELETE FROM " + tablename + " WHERE id = ?";
-        try {
-            PreparedStatement pstmt = connection.prepareStatement(deleteSQL);
-            pstmt.setString(1, id);
-            pstmt.executeUpdate();
-            return true;
-        } catch (SQLException e) {
-            e.printStackTrace();
+        synchronized (connection) {
+            try {
+                for (String table : getPatientTables(connection)) {
+                    PreparedStatement pstmt = connection.prepareStatement("DELETE FROM " + table + " WHERE id = ?");
+                    pstmt.setString(1, id);
+                    pstmt.executeUpdate();
+                }
+                if (isMirrored(connection))
+                    mirror.remove(id);
+                return true;
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
         }
         return false;
     }
 
     /**
      * Given a FHIR patient resource, the patient will be inserted into the database AND all old version of that patient will be
-     * deleted
+     * deleted. With partitioned storage this moves the patient into the partition of its new creation date.
      * 
      * @param patient
      *            The FHIR patient resource to be added
@@ -107,23 +157,182 @@ public class PatientDataAccessService {
      */
 
     public Boolean updatePatient(Patient patient, Connection connection) {
-        String searchSQL =
-                "DELETE FROM " + tablename + " WHERE firstname = ? AND lastname = ? AND gender = ? and birthdate = ?";
+        return updatePatient(FHIRPatientProcessor.createPatientRecord(patient), connection);
+    }
+
+    /**
+     * Given a patient record, the patient will be inserted into the database AND all old version of that patient will be
+     * deleted.
+     * 
+     * @param patient
+     *            The record with the column values and the FHIR json of the patient
+     * @param conncection
+     *            to the database
+     * @return Boolean which indicates if the patient could be added or not
+     */
+    public Boolean updatePatient(PatientRecord patient, Connection connection) {
+        synchronized (connection) {
+            try {
+                for (String table : getPatientTables(connection)) {
+                    String searchSQL = "DELETE FROM " + table
+                            + " WHERE firstname = ? AND lastname = ? AND gender = ? and birthdate = ?";
+                    PreparedStatement pstmt = connection.prepareStatement(searchSQL);
+                    pstmt.setString(1, patient.getFirstname());
+                    pstmt.setString(2, patient.getLastname());
+                    pstmt.setString(3, patient.getGender());
+                    pstmt.setString(4, patient.getBirthdate());
+                    pstmt.executeUpdate();
+                }
+                if (isMirrored(connection))
+                    mirror.removeMatching(patient.getFirstname(), patient.getLastname(), patient.getGender(),
+                        patient.getBirthdate());
+
+                return (addPatient(patient, connection));
+
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Deletes all patients in the given list of IDs. The deletion is split into chunks of {@code deletebatchsize} IDs, each
+     * chunk is sent as one JDBC batch and committed in its own transaction, so the database is never locked for the whole
+     * deletion and other requests can be served in between the chunks.
+     * 
+     * @param ids
+     *            of the patients to be deleted
+     * @param connection
+     *            to the database
+     * @return number of deleted patients or null if a chunk could not be deleted. Chunks committed before the failure stay
+     *         deleted.
+     */
+    public Integer deletePatients(List<String> ids, Connection connection) {
+        int deleted = 0;
         try {
-            PreparedStatement pstmt = connection.prepareStatement(searchSQL);
-            pstmt.setString(1, patient.getName().get(0).getGivenAsSingleString());
-            pstmt.setString(2, patient.getName().get(0).getFamily());
-            pstmt.setString(3, patient.getGender().toString().toLowerCase());
-            pstmt.setString(4, patient.getBirthDateElement().asStringValue());
-            pstmt.executeUpdate();
+            for (int from = 0; from < ids.size(); from += deleteBatchSize) {
+                List<String> chunk = ids.subList(from, Math.min(from + deleteBatchSize, ids.size()));
+                // The mirror is updated before the lock is released, so no search sees the chunk in only one of both
+                synchronized (connection) {
+                    deleted += deleteChunk(chunk, connection);
+                    if (isMirrored(connection))
+                        chunk.forEach(mirror::remove);
+                }
+            }
+            return deleted;
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
 
-            return (addPatient(patient, connection));
+    /**
+     * Deletes all patients matching the given search parameters. The parameters are interpreted the same way as in
+     * {@link #search(Map, Connection)}, but at least one valid parameter is required, so this can never wipe the whole table.
+     * 
+     * @param searchParameters
+     *            map with all search parameters as keys and value as the desired fields. Invalid fields will be ignored.
+     * @param connection
+     *            to the database
+     * @return number of deleted patients (0 if no valid search parameter was given) or null if the deletion failed
+     */
+    public Integer deletePatients(Map<String, String> searchParameters, Connection connection) {
+        try {
+            ArrayList<String> values = new ArrayList<String>();
+            String whereClause;
+            synchronized (connection) {
+                whereClause = buildWhereClause(searchParameters, null, values, connection);
+            }
+            if (whereClause.isEmpty())
+                return 0;
+
+            // Collect the matching IDs first so the deletion itself can be chunked
+            ArrayList<String> ids = new ArrayList<String>();
+            synchronized (connection) {
+                try (PreparedStatement pstmt = connection.prepareStatement("SELECT id FROM " + viewname + whereClause)) {
+                    for (int i = 0; i < values.size(); i++)
+                        pstmt.setString(i + 1, values.get(i));
+                    ResultSet res = pstmt.executeQuery();
+                    while (res.next())
+                        ids.add(res.getString("id"));
+                }
+            }
+            return deletePatients(ids, connection);
 
         } catch (SQLException e) {
             e.printStackTrace();
         }
+        return null;
+    }
 
-        return false;
+    /**
+     * Deletes one chunk of patients as a single JDBC batch per table inside its own transaction
+     * 
+     * @param ids
+     *            of the patients in this chunk
+     * @param connection
+     *            to the database
+     * @return number of deleted patients
+     * @throws SQLException
+     *             if the chunk failed, the chunk is rolled back before
+     */
+    private int deleteChunk(List<String> ids, Connection connection) throws SQLException {
+        return inTransaction(connection, () -> {
+            int deleted = 0;
+            // Partitions can be added in between the chunks
+            for (String table : getPatientTables(connection)) {
+                try (PreparedStatement pstmt = connection.prepareStatement("DELETE FROM " + table + " WHERE id = ?")) {
+                    for (String id : ids) {
+                        pstmt.setString(1, id);
+                        pstmt.addBatch();
+                    }
+                    for (int count : pstmt.executeBatch()) {
+                        if (count > 0)
+                            deleted += count;
+                    }
+                }
+            }
+            return deleted;
+        });
+    }
+
+    /**
+     * Runs the given statements in one transaction. The connection is shared by all requests, but every statement is only run
+     * while holding the lock of the connection, so no other request can run statements inside this transaction until it is
+     * committed or rolled back.
+     * 
+     * @param connection
+     *            to the database
+     * @param work
+     *            statements to run
+     * @return the result of the statements
+     * @throws SQLException
+     *             if a statement failed, the transaction is rolled back before
+     */
+    private <T> T inTransaction(Connection connection, SQLWork<T> work) throws SQLException {
+        synchronized (connection) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                T result = work.run();
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    /*
+     * Statements which are run inside a transaction
+     */
+    private interface SQLWork<T> {
+        T run() throws SQLException;
     }
 
     /**
@@ -136,31 +345,79 @@ public class PatientDataAccessService {
      * @return JSONArray with all fhir resources
      */
     public JSONArray search(Map<String, String> searchParameters, Connection connection) {
-        String templateQuery = "SELECT fhir FROM " + viewname;
-        String searchSQL = templateQuery;
+        return search(searchParameters, connection, null);
+    }
+
+    /**
+     * Same as {@link #search(Map, Connection)}, but records the time needed by each phase of the search in the given profile
+     * 
+     * @param searchParameters
+     *            map with all search parameters as keys and value as the desired fields. Invalid fields will be ignored. An empty
+     *            map will return the full data set.
+     * @param connection
+     *            to database
+     * @param profile
+     *            to record the phases in, if null nothing is recorded
+     * @return JSONArray with all fhir resources
+     */
+    public JSONArray search(Map<String, String> searchParameters, Connection connection, SearchProfile profile) {
+        if (isMirrored(connection)) {
+            JSONArray resArr = searchMirror(searchParameters, profile);
+            if (resArr != null)
+                return resArr;
+        }
+
+        synchronized (connection) {
+            return searchDatabase(searchParameters, connection, profile);
+        }
+    }
 
+    /*
+     * Answers the search with a query on the database, has to be called while holding the lock of the connection
+     */
+    private JSONArray searchDatabase(Map<String, String> searchParameters, Connection connection, SearchProfile profile) {
         try {
-            // If there is atleast one search parameter generate the sql query
-            if (searchParameters.size() > 0) {
-                searchSQL += " WHERE ";
-                // Get a list of all column names
-                ArrayList<String> columnNames = getAllColumnNames(connection);
-
-                // Add all search parameters which exist as column names
-                for (Map.Entry<String, String> entry : searchParameters.entrySet()) {
-                    if (columnNames.contains(entry.getKey()))
-                        searchSQL += entry.getKey() + " = '" + entry.getValue() + "' AND ";
+            long start = System.nanoTime();
+            ArrayList<String> columns = new ArrayList<String>();
+            ArrayList<String> values = new ArrayList<String>();
+            String searchSQL =
+                    "SELECT fhir FROM " + viewname + buildWhereClause(searchParameters, columns, values, connection);
+
+            PreparedStatement pstmt = connection.prepareStatement(searchSQL);
+            for (int i = 0; i < values.size(); i++)
+                pstmt.setString(i + 1, values.get(i));
+            if (profile != null)
+                profile.sqlBuilt(searchSQL, columns, values, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            ResultSet res = pstmt.executeQuery();
+            if (profile != null)
+                profile.executed(System.nanoTime() - start);
+
+            JSONArray resArr = new JSONArray();
+            if (profile == null || !profile.isSampled()) {
+                start = System.nanoTime();
+                while (res.next()) {
+                    resArr.put(new JSONObject(res.getString("fhir")));
                 }
-                // Clean up the query and remove the last AND
-                searchSQL = (searchSQL + ";").replace(" AND ;", "").replace(" WHERE ;", "");
-                System.out.println(searchSQL);
+                if (profile != null)
+                    profile.fetched(resArr.length(), System.nanoTime() - start);
+                return resArr;
             }
 
-            ResultSet res = connection.createStatement().executeQuery(searchSQL);
-            JSONArray resArr = new JSONArray();
+            // Same as above, but timing the fetching and the decoding of each row separately
+            long fetch = 0, decode = 0;
+            start = System.nanoTime();
             while (res.next()) {
-                resArr.put(new JSONObject(res.getString("fhir")));
+                String fhir = res.getString("fhir");
+                long fetched = System.nanoTime();
+                fetch += fetched - start;
+                resArr.put(new JSONObject(fhir));
+                start = System.nanoTime();
+                decode += start - fetched;
             }
+            fetch += System.nanoTime() - start;
+            profile.fetched(resArr.length(), fetch, decode);
             return resArr;
 
         } catch (SQLException e) {
@@ -170,6 +427,89 @@ public class PatientDataAccessService {
         return null;
     }
 
+    /**
+     * Answers the search from the in-memory mirror
+     * 
+     * @param searchParameters
+     *            map with all search parameters as keys and value as the desired fields. Invalid fields will be ignored.
+     * @param profile
+     *            to record the phases in, if null nothing is recorded
+     * @return JSONArray with all fhir resources or null if the mirror can't answer the search
+     */
+    private JSONArray searchMirror(Map<String, String> searchParameters, SearchProfile profile) {
+        long start = System.nanoTime();
+        List<byte[]> patients = mirror.search(searchParameters);
+        if (patients == null)
+            return null;
+
+        long searched = System.nanoTime();
+        JSONArray resArr = new JSONArray();
+        for (byte[] fhir : patients)
+            resArr.put(new JSONObject(new String(fhir, StandardCharsets.UTF_8)));
+
+        if (profile != null) {
+            // Like in the database search only the valid parameter names are recorded
+            ArrayList<String> columns = new ArrayList<String>();
+            for (String key : searchParameters.keySet()) {
+                if (PatientMirror.MIRRORED_COLUMNS.contains(key))
+                    columns.add(key);
+            }
+            profile.sqlBuilt(null, columns, Collections.emptyList(), 0);
+            profile.executed(searched - start);
+            // Reading from the mirror is part of the search, so all of the remaining time is decoding
+            if (profile.isSampled())
+                profile.fetched(resArr.length(), 0, System.nanoTime() - searched);
+            else
+                profile.fetched(resArr.length(), System.nanoTime() - searched);
+        }
+        return resArr;
+    }
+
+    /*
+     * True if searches on this connection can be answered by the mirror and writes have to be applied to it
+     */
+    private boolean isMirrored(Connection connection) {
+        return mirror != null && connection == dbConnection;
+    }
+
+    /**
+     * Turns the search parameters into a WHERE clause. Only parameters which exist as column names are used, their values are
+     * added as statement parameters in the order of the placeholders.
+     * 
+     * @param searchParameters
+     *            map with all search parameters as keys and value as the desired fields. Invalid fields will be ignored.
+     * @param columns
+     *            list the names of the used columns will be added to, may be null
+     * @param values
+     *            list the values for the placeholders will be added to
+     * @param connection
+     *            to database
+     * @return String with the WHERE clause or an empty string if there is no valid search parameter
+     * @throws SQLException
+     */
+    private String buildWhereClause(Map<String, String> searchParameters, List<String> columns, List<String> values,
+            Connection connection) throws SQLException {
+        // If there is no search parameter there is nothing to filter
+        if (searchParameters.isEmpty())
+            return "";
+
+        // Get a list of all column names
+        ArrayList<String> columnNames = getAllColumnNames(connection);
+
+        // Add all search parameters which exist as column names
+        StringBuilder whereClause = new StringBuilder();
+        for (Map.Entry<String, String> entry : searchParameters.entrySet()) {
+            if (columnNames.contains(entry.getKey())) {
+                whereClause.append(whereClause.length() == 0 ? " WHERE " : " AND ");
+                whereClause.append(entry.getKey()).append(" = ?");
+                values.add(entry.getValue());
+                if (columns != null)
+                    columns.add(entry.getKey());
+            }
+        }
+        return whereClause.toString();
+    }
+
     /**
      * 
      * @param connection
@@ -179,7 +519,7 @@ public class PatientDataAccessService {
      */
     private ArrayList<String> getAllColumnNames(Connection connection) throws SQLException {
         ArrayList<String> columnNames = new ArrayList<String>();
-        String sql = "SELECT * FROM " + tablename + " WHERE 1 = 0";
+        String sql = "SELECT * FROM " + viewname + " WHERE 1 = 0";
         ResultSetMetaData rsmd = connection.createStatement().executeQuery(sql).getMetaData();
         int columnCount = rsmd.getColumnCount();
         for (int i = 1; i <= columnCount; i++) {
@@ -192,42 +532,97 @@ public class PatientDataAccessService {
      * Given a birth date the function will return the age of the person as an integer
      * 
      * @param birthdate
+     *            ISO date, e.g. 1951-05-15
      * @return int age - in years
      */
-    private int calculateAge(Date birthdate) {
-        if (birthdate != null) {
-            LocalDate bd = Instant.ofEpochMilli(birthdate.getTime()).atZone(ZoneId.systemDefault()).toLocalDate();
-            return Period.between(bd, LocalDate.now()).getYears();
-        }
+    private int calculateAge(String birthdate) {
+        if (birthdate != null)
+            return Period.between(LocalDate.parse(birthdate), LocalDate.now()).getYears();
         return 0;
     }
 
     /**
-     * Given a date the function will delete all resources which were created before that date
+     * Given a date the function will delete all resources which were created before that date. With partitioned storage all
+     * partitions which end before that date are dropped as a whole, only the partition containing the date is cleaned up row
+     * by row.
      * 
      * @param deletionDate
      * @param connection
      *            to the database
      */
     public void deletePatientRecordsOlderThan(Date deletionDate, Connection connection) {
-        String deleteSQL = "DELETE FROM " + tablename + " WHERE date_created < ?";
-        try {
-            PreparedStatement pstmt = connection.prepareStatement(deleteSQL);
-            pstmt.setDate(1, new java.sql.Date(deletionDate.getTime()));
-            pstmt.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
+        synchronized (connection) {
+            try {
+                if (partitioned)
+                    dropPartitionsOlderThan(deletionDate, connection);
+                else
+                    deleteRowsOlderThan(tablename, deletionDate, connection);
+                if (isMirrored(connection))
+                    mirror.removeCreatedBefore(deletionDate.getTime());
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
         }
     }
 
+    /*
+     * Deletes all rows of the table which were created before the given date
+     */
+    private void deleteRowsOlderThan(String table, Date deletionDate, Connection connection) throws SQLException {
+        String deleteSQL = "DELETE FROM " + table + " WHERE date_created < ?";
+        PreparedStatement pstmt = connection.prepareStatement(deleteSQL);
+        pstmt.setDate(1, new java.sql.Date(deletionDate.getTime()));
+        pstmt.executeUpdate();
+    }
+
+    /*
+     * Drops all partitions which only contain patients created before the given date and deletes the old rows of the
+     * partition containing the date
+     */
+    private void dropPartitionsOlderThan(Date deletionDate, Connection connection) throws SQLException {
+        inTransaction(connection, () -> {
+            ArrayList<String> dropped = new ArrayList<String>();
+            for (String partition : getPartitions(connection)) {
+                YearMonth month = getPartitionMonth(partition);
+                if (!toDate(month.plusMonths(1)).after(deletionDate))
+                    dropped.add(partition);
+                else if (toDate(month).before(deletionDate))
+                    deleteRowsOlderThan(partition, deletionDate, connection);
+            }
+
+            if (!dropped.isEmpty()) {
+                // The view has to be rebuilt without the dropped partitions first
+                connection.createStatement().execute("DROP VIEW IF EXISTS " + viewname);
+                for (String partition : dropped)
+                    connection.createStatement().execute("DROP TABLE " + partition);
+                createPartition(getPartitionName(new Date()), connection);
+                createPatientsView(connection);
+            }
+            return null;
+        });
+    }
+
     /**
      * Will be run on Start up, used for all initialization calls
      */
     @EventListener(ApplicationReadyEvent.class)
     public void onStartUp() {
+        if (deleteBatchSize < 1)
+            throw new IllegalArgumentException("Invalid deletebatchsize " + deleteBatchSize + ", must be at least 1");
 
         // Create the DB, tables etc. if they don't exist yet
-        dbConnection = initDB();
+        dbConnection = initDB(dbfile);
+
+        // Load all patients into the mirror
+        mirror = null;
+        if (readMirror) {
+            try {
+                mirror = PatientMirror.load(dbConnection, viewname);
+                System.out.println("Loaded " + mirror.size() + " patients into the mirror!");
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
 
         // Start the daily clean up process
         dbCleanUp();
@@ -246,24 +641,61 @@ public class PatientDataAccessService {
         }
     }
 
+    /**
+     * Opens the connection to the database of a tenant, see {@link #initDB(String)}
+     * 
+     * @param file
+     *            of the SQLite database of the tenant
+     * @return Connection to the SQLite DB or null if it could not be opened
+     */
+    public Connection openDatabase(String file) {
+        return initDB(file);
+    }
+
+    /**
+     * Deletes all patients which were created more than a year ago
+     * 
+     * @param connection
+     *            to the database
+     */
+    public void deleteExpiredPatients(Connection connection) {
+        LocalDate lastYear = LocalDate.now().minusYears(1);
+        deletePatientRecordsOlderThan(Date.from(lastYear.atStartOfDay(ZoneId.systemDefault()).toInstant()), connection);
+    }
+
     /**
      * Opens the connection to the Database and creates the tables and views if needed
      * 
+     * @param file
+     *            of the SQLite database
      * @return Connection to the SQLite DB
      */
-    private Connection initDB() {
+    private Connection initDB(String file) {
         Connection connection = null;
         try {
-            connection = DriverManager.getConnection("jdbc:sqlite:patientdata.db");
+            connection = DriverManager.getConnection("jdbc:sqlite:" + file);
             System.out.println("Database connection opened!");
             // Check if table exists
             DatabaseMetaData dmd = connection.getMetaData();
             ResultSet tables = dmd.getTables(null, null, tablename, null);
-
-            // If it doesn't exist create the table and the view
-            if (!tables.next()) {
-                createPatientsTable(connection);
-                createPatientsView(connection);
+            boolean tableExists = tables.next();
+            tables.close();
+
+            if (partitioned) {
+                // Move the data of an existing unpartitioned table into the partitions
+                if (tableExists)
+                    migrateToPartitions(connection);
+                initPartitions(connection);
+            } else {
+                // If it doesn't exist create the table and the view, a view left over from partitioned storage is replaced
+                if (!tableExists) {
+                    createPatientsTable(tablename, connection);
+                    connection.createStatement().execute("DROP VIEW IF EXISTS " + viewname);
+                    createPatientsView(connection);
+                }
+                // Move the data of existing partitions back into the table
+                if (!getPartitions(connection).isEmpty())
+                    migrateFromPartitions(connection);
             }
 
         } catch (Exception e) {
@@ -273,21 +705,186 @@ public class PatientDataAccessService {
     }
 
     /*
-     * Creates the Patients table
+     * Creates a Patients table with the given name
      */
-    private void createPatientsTable(Connection connection) throws SQLException {
-        String createTableSQL = "CREATE TABLE " + tablename + " (" + "    id varchar(255), "
+    private void createPatientsTable(String name, Connection connection) throws SQLException {
+        String createTableSQL = "CREATE TABLE IF NOT EXISTS " + name + " (" + "    id varchar(255), "
                 + "    firstname varchar(255), " + "    lastname varchar(255), " + "    gender varchar(10), "
                 + "    birthdate text, " + "    date_created date, " + "fhir text, " + "PRIMARY KEY (id)" + ");";
         connection.createStatement().execute(createTableSQL);
     }
 
     /*
-     * Creates the View of the Patients table to show data ordered by last name
+     * Creates the View of the Patients table (or of all partitions) to show data ordered by last name
      */
     private void createPatientsView(Connection connection) throws SQLException {
-        String createView = "CREATE VIEW " + viewname + " AS SELECT * FROM " + tablename + " ORDER BY lastname;";
-        connection.createStatement().execute(createView);
+        StringBuilder createView = new StringBuilder("CREATE VIEW " + viewname + " AS ");
+        for (String table : getPatientTables(connection)) {
+            createView.append("SELECT * FROM ").append(table).append(" UNION ALL ");
+        }
+        createView.setLength(createView.length() - " UNION ALL ".length());
+        createView.append(" ORDER BY lastname;");
+        connection.createStatement().execute(createView.toString());
+    }
+
+    /**
+     * @param connection
+     *            to the database
+     * @return String List of all tables containing patients, either the Patients table or all its partitions
+     * @throws SQLException
+     */
+    private List<String> getPatientTables(Connection connection) throws SQLException {
+        if (partitioned)
+            return getPartitions(connection);
+        return Collections.singletonList(tablename);
+    }
+
+    /**
+     * @param connection
+     *            to the database
+     * @return String List of all monthly partitions of the Patients table, oldest first
+     * @throws SQLException
+     */
+    private List<String> getPartitions(Connection connection) throws SQLException {
+        ArrayList<String> partitions = new ArrayList<String>();
+        PreparedStatement pstmt = connection
+                .prepareStatement("SELECT name FROM sqlite_master WHERE type = 'table' AND name GLOB ? ORDER BY name");
+        pstmt.setString(1, tablename + "_" + "[0-9]".repeat(6));
+        ResultSet res = pstmt.executeQuery();
+        while (res.next())
+            partitions.add(res.getString("name"));
+        return partitions;
+    }
+
+    /**
+     * Returns the table a patient created at the given date has to be inserted into. With partitioned storage the partition
+     * of the month is created if it doesn't exist yet.
+     * 
+     * @param dateCreated
+     *            of the patient
+     * @param connection
+     *            to the database
+     * @return String name of the table
+     * @throws SQLException
+     */
+    private String getInsertTable(Date dateCreated, Connection connection) throws SQLException {
+        if (!partitioned)
+            return tablename;
+
+        String partition = getPartitionName(dateCreated);
+        if (!getPartitions(connection).contains(partition)) {
+            inTransaction(connection, () -> {
+                createPartition(partition, connection);
+                connection.createStatement().execute("DROP VIEW IF EXISTS " + viewname);
+                createPatientsView(connection);
+                return null;
+            });
+        }
+        return partition;
+    }
+
+    /*
+     * Creates the partition for the current month and the view over all partitions
+     */
+    private void initPartitions(Connection connection) throws SQLException {
+        inTransaction(connection, () -> {
+            createPartition(getPartitionName(new Date()), connection);
+            connection.createStatement().execute("DROP VIEW IF EXISTS " + viewname);
+            createPatientsView(connection);
+            return null;
+        });
+    }
+
+    /*
+     * Creates a partition, with an index on date_created for the clean up of the partition containing the deletion date
+     */
+    private void createPartition(String partition, Connection connection) throws SQLException {
+        createPatientsTable(partition, connection);
+        connection.createStatement().execute(
+            "CREATE INDEX IF NOT EXISTS " + partition + "_date_created ON " + partition + " (date_created)");
+    }
+
+    /**
+     * Moves all patients of the unpartitioned Patients table into the monthly partitions and drops the table afterwards
+     * 
+     * @param connection
+     *            to the database
+     * @throws SQLException
+     */
+    private void migrateToPartitions(Connection connection) throws SQLException {
+        inTransaction(connection, () -> {
+            // Collect all months which contain patients
+            ArrayList<YearMonth> months = new ArrayList<YearMonth>();
+            try (Statement stmt = connection.createStatement()) {
+                // The statement has to be closed before the table can be dropped
+                ResultSet res = stmt.executeQuery("SELECT date_created FROM " + tablename);
+                while (res.next()) {
+                    Date dateCreated = new Date(res.getDate("date_created").getTime());
+                    YearMonth month = YearMonth.from(dateCreated.toInstant().atZone(ZoneId.systemDefault()));
+                    if (!months.contains(month))
+                        months.add(month);
+                }
+            }
+
+            for (YearMonth month : months) {
+                String partition = tablename + "_" + month.format(PARTITION_FORMAT);
+                createPartition(partition, connection);
+                PreparedStatement pstmt = connection.prepareStatement("INSERT INTO " + partition + " SELECT * FROM "
+                        + tablename + " WHERE date_created >= ? AND date_created < ?");
+                pstmt.setDate(1, new java.sql.Date(toDate(month).getTime()));
+                pstmt.setDate(2, new java.sql.Date(toDate(month.plusMonths(1)).getTime()));
+                pstmt.executeUpdate();
+            }
+
+            connection.createStatement().execute("DROP VIEW IF EXISTS " + viewname);
+            connection.createStatement().execute("DROP TABLE " + tablename);
+            System.out.println("Migrated " + tablename + " into " + months.size() + " partitions!");
+            return null;
+        });
+    }
+
+    /**
+     * Moves all patients of the monthly partitions back into the unpartitioned Patients table, drops the partitions afterwards
+     * and rebuilds the view over the table
+     * 
+     * @param connection
+     *            to the database
+     * @throws SQLException
+     */
+    private void migrateFromPartitions(Connection connection) throws SQLException {
+        inTransaction(connection, () -> {
+            List<String> partitions = getPartitions(connection);
+            connection.createStatement().execute("DROP VIEW IF EXISTS " + viewname);
+            for (String partition : partitions) {
+                connection.createStatement().execute("INSERT INTO " + tablename + " SELECT * FROM " + partition);
+                connection.createStatement().execute("DROP TABLE " + partition);
+            }
+            createPatientsView(connection);
+            System.out.println("Migrated " + partitions.size() + " partitions into " + tablename + "!");
+            return null;
+        });
+    }
+
+    /*
+     * Name of the partition containing the patients created in the month of the given date
+     */
+    private String getPartitionName(Date dateCreated) {
+        YearMonth month = YearMonth.from(dateCreated.toInstant().atZone(ZoneId.systemDefault()));
+        return tablename + "_" + month.format(PARTITION_FORMAT);
+    }
+
+    /*
+     * Month of the patients contained in the given partition
+     */
+    private YearMonth getPartitionMonth(String partition) {
+        return YearMonth.parse(partition.substring(tablename.length() + 1), PARTITION_FORMAT);
+    }
+
+    /*
+     * Start of the given month
+     */
+    private static Date toDate(YearMonth month) {
+        return Date.from(month.atDay(1).atStartOfDay(ZoneId.systemDefault()).toInstant());
     }
 
     /*
@@ -297,12 +894,9 @@ public class PatientDataAccessService {
 
         Thread dailyCleanUp = new Thread() {
             public void run() {
-                LocalDate today;
                 while (true) {
 
-                    today = LocalDate.now().minusYears(1);
-                    deletePatientRecordsOlderThan(Date.from(today.atStartOfDay(ZoneId.systemDefault()).toInstant()),
-                        dbConnection);
+                    deleteExpiredPatients(dbConnection);
 
                     try {
                         sleep(TimeUnit.DAYS.toMillis(1));
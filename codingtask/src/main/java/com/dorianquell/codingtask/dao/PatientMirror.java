@@ -0,0 +1,419 @@
+package com.dorianquell.codingtask.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read optimized in-memory copy of the patients table. The patients are stored column by column: names and genders are
+ * dictionary encoded, birth dates are stored as epoch days and the FHIR resources as UTF-8 bytes. Hash indexes on id,
+ * first name, last name and birth date are used to answer searches without scanning all patients.
+ *
+ * Searches don't take any locks. All changes are made by one writer at a time and published through volatile fields, so a
+ * search sees every change which was finished before it started. Deleted patients are only marked as deleted and removed
+ * once they make up half of the table.
+ */
+public class PatientMirror {
+
+    /**
+     * Columns the mirror can filter on
+     */
+    public static final List<String> MIRRORED_COLUMNS =
+            Collections.unmodifiableList(Arrays.asList("id", "firstname", "lastname", "gender", "birthdate"));
+
+    // Columns the mirror can't filter on, searches using them have to be answered by the database
+    private static final List<String> DATABASE_ONLY_COLUMNS = Arrays.asList("date_created", "fhir");
+
+    // Code of null and unknown values, outside of the dictionary codes and of the epoch days of valid birth dates
+    private static final int NO_VALUE = Integer.MIN_VALUE;
+
+    // Gender of patients without gender, genders are stored as bytes
+    private static final byte NO_GENDER = -1;
+
+    private final Dictionary names = new Dictionary();
+    private final Dictionary genders = new Dictionary();
+
+    private volatile Table table = new Table(1024);
+
+    /**
+     * Loads all patients of the given table or view into a new mirror
+     *
+     * @param connection
+     *            to the database
+     * @param table
+     *            or view containing the patients
+     * @return PatientMirror containing all patients
+     * @throws SQLException
+     */
+    public static PatientMirror load(Connection connection, String table) throws SQLException {
+        PatientMirror mirror = new PatientMirror();
+        try (Statement stmt = connection.createStatement()) {
+            ResultSet res =
+                    stmt.executeQuery("SELECT id, firstname, lastname, gender, birthdate, date_created, fhir FROM " + table);
+            while (res.next()) {
+                mirror.put(res.getString("id"), res.getString("firstname"), res.getString("lastname"),
+                    res.getString("gender"), res.getString("birthdate"), res.getLong("date_created"),
+                    res.getString("fhir"));
+            }
+        }
+        return mirror;
+    }
+
+    /**
+     * Adds a patient, an existing patient with the same ID is replaced
+     */
+    public synchronized void put(String id, String firstname, String lastname, String gender, String birthdate,
+            long dateCreated, String fhir) {
+        Table t = table;
+        Integer existing = t.idIndex.get(id);
+        if (existing != null)
+            t.delete(existing);
+
+        if (t.size == t.ids.length)
+            t = compact(Math.max(t.live() * 2, 1024));
+
+        int slot = t.size;
+        t.ids[slot] = id;
+        t.firstnames[slot] = names.encode(firstname);
+        t.lastnames[slot] = names.encode(lastname);
+        int genderCode = genders.encode(gender);
+        t.genders[slot] = genderCode == NO_VALUE ? NO_GENDER : (byte) genderCode;
+        t.birthdates[slot] = toEpochDay(birthdate);
+        t.datesCreated[slot] = dateCreated;
+        t.fhir[slot] = fhir.getBytes(StandardCharsets.UTF_8);
+        t.index(slot);
+
+        // Publishes the new patient to all following searches
+        t.size = slot + 1;
+    }
+
+    /**
+     * Removes the patient with the given ID
+     */
+    public synchronized void remove(String id) {
+        Integer slot = table.idIndex.get(id);
+        if (slot != null) {
+            table.delete(slot);
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * Removes all patients with the given name, gender and birth date - the same patients an update replaces. Like in the
+     * database a null value doesn't match any patient.
+     */
+    public synchronized void removeMatching(String firstname, String lastname, String gender, String birthdate) {
+        int firstnameCode = names.lookup(firstname);
+        int lastnameCode = names.lookup(lastname);
+        int genderCode = genders.lookup(gender);
+        int birthdateDay = toEpochDay(birthdate);
+        // A value which is not known to the mirror can't match any patient
+        if (firstnameCode == NO_VALUE || lastnameCode == NO_VALUE || genderCode == NO_VALUE || birthdateDay == NO_VALUE)
+            return;
+
+        Table t = table;
+        IntBag candidates = t.lastnameIndex.get(lastnameCode);
+        if (candidates == null)
+            return;
+        int[] slots = candidates.data;
+        for (int i = 0; i < candidates.size; i++) {
+            int slot = slots[i];
+            if (!t.deleted[slot] && t.firstnames[slot] == firstnameCode && t.genders[slot] == genderCode
+                    && t.birthdates[slot] == birthdateDay)
+                t.delete(slot);
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Removes all patients created before the given time
+     *
+     * @param millis
+     *            epoch milliseconds
+     */
+    public synchronized void removeCreatedBefore(long millis) {
+        Table t = table;
+        for (int slot = 0; slot < t.size; slot++) {
+            if (!t.deleted[slot] && t.datesCreated[slot] < millis)
+                t.delete(slot);
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Searches the patients the same way as the database view: all valid search parameters have to match exactly and the
+     * result is ordered by last name.
+     *
+     * @param searchParameters
+     *            map with all search parameters as keys and value as the desired fields. Invalid fields will be ignored.
+     * @return List with the FHIR resources of all matching patients as UTF-8 bytes, or null if the search contains a
+     *         parameter the mirror can't answer
+     */
+    public List<byte[]> search(Map<String, String> searchParameters) {
+        for (String key : searchParameters.keySet()) {
+            if (DATABASE_ONLY_COLUMNS.contains(key))
+                return null;
+        }
+
+        // Reading the size first makes all patients up to this size visible
+        Table t = table;
+        int size = t.size;
+        List<byte[]> result = new ArrayList<byte[]>();
+
+        // Encode the search parameters, a value which is not known to the mirror can't match any patient
+        String id = null;
+        int firstname = NO_VALUE, lastname = NO_VALUE, gender = NO_VALUE, birthdate = NO_VALUE;
+        List<IntBag> indexed = new ArrayList<IntBag>();
+        for (Map.Entry<String, String> entry : searchParameters.entrySet()) {
+            String value = entry.getValue();
+            switch (entry.getKey()) {
+                case "id":
+                    id = value;
+                    break;
+                case "firstname":
+                    firstname = names.lookup(value);
+                    if (firstname == NO_VALUE)
+                        return result;
+                    indexed.add(t.firstnameIndex.get(firstname));
+                    break;
+                case "lastname":
+                    lastname = names.lookup(value);
+                    if (lastname == NO_VALUE)
+                        return result;
+                    indexed.add(t.lastnameIndex.get(lastname));
+                    break;
+                case "gender":
+                    gender = genders.lookup(value);
+                    if (gender == NO_VALUE)
+                        return result;
+                    break;
+                case "birthdate":
+                    birthdate = toEpochDay(value);
+                    if (birthdate == NO_VALUE)
+                        return result;
+                    indexed.add(t.birthdateIndex.get(birthdate));
+                    break;
+                default:
+                    // Invalid search parameters are ignored
+                    continue;
+            }
+            // No patient has this value
+            if (indexed.contains(null))
+                return result;
+        }
+
+        // Use the most selective index, scan all patients if there is none
+        int[] candidates = null;
+        int count = size;
+        if (id != null) {
+            Integer slot = t.idIndex.get(id);
+            if (slot == null)
+                return result;
+            candidates = new int[] { slot };
+            count = 1;
+        } else if (!indexed.isEmpty()) {
+            IntBag smallest = Collections.min(indexed, Comparator.comparingInt((IntBag bag) -> bag.size));
+            count = smallest.size;
+            candidates = smallest.data;
+        }
+
+        ArrayList<Integer> matches = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            int slot = candidates == null ? i : candidates[i];
+            if (slot >= size || t.deleted[slot])
+                continue;
+            if (firstname != NO_VALUE && t.firstnames[slot] != firstname)
+                continue;
+            if (lastname != NO_VALUE && t.lastnames[slot] != lastname)
+                continue;
+            if (gender != NO_VALUE && t.genders[slot] != gender)
+                continue;
+            if (birthdate != NO_VALUE && t.birthdates[slot] != birthdate)
+                continue;
+            matches.add(slot);
+        }
+
+        // Same order as the view, patients without last name first
+        matches.sort(Comparator.comparing((Integer slot) -> names.decode(t.lastnames[slot]),
+            Comparator.nullsFirst(Comparator.naturalOrder())));
+        for (int slot : matches)
+            result.add(t.fhir[slot]);
+        return result;
+    }
+
+    /**
+     * @return number of patients in the mirror
+     */
+    public int size() {
+        return table.live();
+    }
+
+    /*
+     * Removes the deleted patients once they make up half of the table
+     */
+    private void compactIfNeeded() {
+        Table t = table;
+        if (t.deletedCount > 1024 && t.deletedCount * 2 > t.size)
+            compact(Math.max(t.live() * 2, 1024));
+        else
+            t.size = t.size; // Publishes the deletions to all following searches
+    }
+
+    /*
+     * Copies all live patients into a new table, searches still running on the old table are not affected
+     */
+    private Table compact(int capacity) {
+        Table old = table;
+        Table t = new Table(capacity);
+        int slot = 0;
+        for (int i = 0; i < old.size; i++) {
+            if (old.deleted[i])
+                continue;
+            t.ids[slot] = old.ids[i];
+            t.firstnames[slot] = old.firstnames[i];
+            t.lastnames[slot] = old.lastnames[i];
+            t.genders[slot] = old.genders[i];
+            t.birthdates[slot] = old.birthdates[i];
+            t.datesCreated[slot] = old.datesCreated[i];
+            t.fhir[slot] = old.fhir[i];
+            t.index(slot);
+            slot++;
+        }
+        t.size = slot;
+        table = t;
+        return t;
+    }
+
+    private static int toEpochDay(String date) {
+        if (date == null)
+            return NO_VALUE;
+        try {
+            long day = LocalDate.parse(date).toEpochDay();
+            // Dates too far from 1970 to be stored as an int are treated like invalid dates
+            return day > NO_VALUE && day <= Integer.MAX_VALUE ? (int) day : NO_VALUE;
+        } catch (DateTimeParseException e) {
+            return NO_VALUE;
+        }
+    }
+
+    /*
+     * Columns and indexes of the patients, the arrays are never resized - a bigger table is created instead
+     */
+    private static final class Table {
+
+        final String[] ids;
+        final int[] firstnames;
+        final int[] lastnames;
+        final byte[] genders;
+        final int[] birthdates;
+        final long[] datesCreated;
+        final byte[][] fhir;
+        final boolean[] deleted;
+
+        final ConcurrentHashMap<String, Integer> idIndex = new ConcurrentHashMap<String, Integer>();
+        final ConcurrentHashMap<Integer, IntBag> firstnameIndex = new ConcurrentHashMap<Integer, IntBag>();
+        final ConcurrentHashMap<Integer, IntBag> lastnameIndex = new ConcurrentHashMap<Integer, IntBag>();
+        final ConcurrentHashMap<Integer, IntBag> birthdateIndex = new ConcurrentHashMap<Integer, IntBag>();
+
+        volatile int size;
+        int deletedCount;
+
+        Table(int capacity) {
+            ids = new String[capacity];
+            firstnames = new int[capacity];
+            lastnames = new int[capacity];
+            genders = new byte[capacity];
+            birthdates = new int[capacity];
+            datesCreated = new long[capacity];
+            fhir = new byte[capacity][];
+            deleted = new boolean[capacity];
+        }
+
+        void index(int slot) {
+            idIndex.put(ids[slot], slot);
+            firstnameIndex.computeIfAbsent(firstnames[slot], k -> new IntBag()).add(slot);
+            lastnameIndex.computeIfAbsent(lastnames[slot], k -> new IntBag()).add(slot);
+            birthdateIndex.computeIfAbsent(birthdates[slot], k -> new IntBag()).add(slot);
+        }
+
+        void delete(int slot) {
+            deleted[slot] = true;
+            idIndex.remove(ids[slot], slot);
+            deletedCount++;
+        }
+
+        int live() {
+            return size - deletedCount;
+        }
+    }
+
+    /*
+     * Append only list of slots, written by one writer and read without locks
+     */
+    private static final class IntBag {
+
+        volatile int[] data = new int[4];
+        volatile int size;
+
+        void add(int slot) {
+            int[] d = data;
+            if (size == d.length) {
+                d = Arrays.copyOf(d, d.length * 2);
+                d[size] = slot;
+                data = d;
+            } else {
+                d[size] = slot;
+            }
+            size++;
+        }
+    }
+
+    /*
+     * Maps values to stable integer codes, only grows
+     */
+    private static final class Dictionary {
+
+        private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<String, Integer>();
+        private volatile String[] values = new String[64];
+
+        int encode(String value) {
+            if (value == null)
+                return NO_VALUE;
+            Integer code = codes.get(value);
+            if (code != null)
+                return code;
+
+            int next = codes.size();
+            String[] v = values;
+            if (next == v.length)
+                v = Arrays.copyOf(v, v.length * 2);
+            v[next] = value;
+            values = v;
+            codes.put(value, next);
+            return next;
+        }
+
+        int lookup(String value) {
+            if (value == null)
+                return NO_VALUE;
+            Integer code = codes.get(value);
+            return code == null ? NO_VALUE : code;
+        }
+
+        String decode(int code) {
+            return code == NO_VALUE ? null : values[code];
+        }
+    }
+
+}
@@ -0,0 +1,294 @@
+package com.dorianquell.codingtask.idempotency;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+/**
+ * Remembers the responses of requests sent with an Idempotency-Key header, so a client retrying a request gets the original
+ * response and the request is not run a second time. Keys are kept per tenant for {@code idempotencyttl} seconds and at
+ * most {@code idempotencymaxkeys} keys are kept in memory, the oldest keys are dropped first.
+ *
+ * With {@code idempotencypersist} the responses are also stored in the database the request was run on, so they are found
+ * after they were dropped from memory or after a restart.
+ */
+@Component
+public class IdempotencyStore {
+
+    public static final String KEY_HEADER = "Idempotency-Key";
+
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private static final String TABLE = "idempotency_keys";
+
+    private static final int MAX_KEY_LENGTH = 255;
+
+    @Value("${idempotencyttl:86400}")
+    private long ttl;
+
+    @Value("${idempotencymaxkeys:10000}")
+    private int maxKeys;
+
+    @Value("${idempotencypersist:false}")
+    private boolean persist;
+
+    // Keys in the order they were first used, the oldest first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+    // Databases which already have the table for the persisted keys
+    private final Set<Connection> initialized = Collections.newSetFromMap(new WeakHashMap<Connection, Boolean>());
+
+    private volatile long lastPurge;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong mismatches = new AtomicLong();
+
+    /**
+     * Runs the request once per key. A repeated request gets the original response, marked with the Idempotent-Replayed
+     * header. While the first request is still running a repeated request is answered with 409, a request reusing a key
+     * for a different payload with 422. Requests failing with a server error are not remembered, so they can be retried.
+     *
+     * @param tenant
+     *            of the request, null for the default database
+     * @param key
+     *            sent in the Idempotency-Key header
+     * @param fingerprint
+     *            of the payload, a repeated request has to have the same fingerprint
+     * @param connection
+     *            to the database of the request
+     * @param request
+     *            to run if the key is new
+     * @return ResponseEntity of the request
+     */
+    public ResponseEntity<String> execute(String tenant, String key, String fingerprint, Connection connection,
+            Supplier<ResponseEntity<String>> request) {
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH)
+            return new ResponseEntity<>("Invalid Idempotency-Key!", HttpStatus.BAD_REQUEST);
+
+        // Tenant IDs can't contain a slash
+        String id = (tenant == null ? "" : tenant) + "/" + key;
+        Entry entry;
+        synchronized (this) {
+            entry = get(id);
+        }
+        // The database is only read outside of the lock
+        if (entry == null && persist)
+            entry = load(key, connection);
+
+        Entry reserved;
+        synchronized (this) {
+            Entry current = get(id);
+            if (current == null && entry != null) {
+                current = entry;
+                add(id, entry);
+            }
+            if (current != null)
+                return replay(current, fingerprint);
+
+            reserved = new Entry(fingerprint, System.currentTimeMillis());
+            add(id, reserved);
+            misses.incrementAndGet();
+        }
+
+        ResponseEntity<String> response;
+        try {
+            response = request.get();
+        } catch (RuntimeException e) {
+            forget(id, reserved);
+            throw e;
+        }
+        if (response.getStatusCode().is5xxServerError()) {
+            forget(id, reserved);
+            return response;
+        }
+
+        synchronized (this) {
+            reserved.complete(response.getStatusCodeValue(), response.getBody());
+        }
+        if (persist)
+            save(key, reserved, connection);
+        return response;
+    }
+
+    /**
+     * @return JSONObject with the number of keys in memory, the hits, misses, conflicts, mismatches and the hit rate
+     */
+    public JSONObject getMetrics() {
+        long h = hits.get();
+        long m = misses.get();
+        JSONObject metrics = new JSONObject();
+        synchronized (this) {
+            metrics.put("keys", entries.size());
+        }
+        metrics.put("hits", h);
+        metrics.put("misses", m);
+        metrics.put("conflicts", conflicts.get());
+        metrics.put("mismatches", mismatches.get());
+        metrics.put("hit_rate", h + m == 0 ? 0 : (double) h / (h + m));
+        return metrics;
+    }
+
+    private ResponseEntity<String> replay(Entry entry, String fingerprint) {
+        if (!entry.fingerprint.equals(fingerprint)) {
+            mismatches.incrementAndGet();
+            return new ResponseEntity<>("Idempotency-Key was already used for a different request!",
+                HttpStatus.UNPROCESSABLE_ENTITY);
+        }
+        if (!entry.done) {
+            conflicts.incrementAndGet();
+            return new ResponseEntity<>("A request with this Idempotency-Key is still in progress!", HttpStatus.CONFLICT);
+        }
+        hits.incrementAndGet();
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(REPLAYED_HEADER, "true");
+        return new ResponseEntity<>(entry.body, headers, HttpStatus.valueOf(entry.status));
+    }
+
+    /*
+     * Returns the entry of the key if it didn't expire yet, drops all expired entries on the way
+     */
+    private Entry get(String id) {
+        long expired = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(ttl);
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext() && iterator.next().created < expired)
+            iterator.remove();
+
+        // Entries loaded from the database can be older than the ones in front of them
+        Entry entry = entries.get(id);
+        if (entry != null && entry.created < expired) {
+            entries.remove(id);
+            return null;
+        }
+        return entry;
+    }
+
+    /*
+     * Adds the entry and drops the oldest entries if there are too many, even if they are still running
+     */
+    private void add(String id, Entry entry) {
+        entries.put(id, entry);
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > maxKeys && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private synchronized void forget(String id, Entry entry) {
+        entries.remove(id, entry);
+    }
+
+    /*
+     * Looks up a completed request in the database
+     */
+    private Entry load(String key, Connection connection) {
+        // Same lock as the statements of the PatientDataAccessService on this connection
+        synchronized (connection) {
+            try {
+                createTable(connection);
+                try (PreparedStatement pstmt = connection.prepareStatement(
+                    "SELECT fingerprint, status, body, created FROM " + TABLE + " WHERE key = ? AND created >= ?")) {
+                    pstmt.setString(1, key);
+                    pstmt.setLong(2, System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(ttl));
+                    ResultSet res = pstmt.executeQuery();
+                    if (res.next()) {
+                        Entry entry = new Entry(res.getString("fingerprint"), res.getLong("created"));
+                        entry.complete(res.getInt("status"), res.getString("body"));
+                        return entry;
+                    }
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Stores a completed request in the database and deletes the expired ones at most once a minute
+     */
+    private void save(String key, Entry entry, Connection connection) {
+        synchronized (connection) {
+            try {
+                createTable(connection);
+                try (PreparedStatement pstmt = connection.prepareStatement("INSERT OR REPLACE INTO " + TABLE
+                        + " (key, fingerprint, status, body, created) VALUES(?,?,?,?,?)")) {
+                    pstmt.setString(1, key);
+                    pstmt.setString(2, entry.fingerprint);
+                    pstmt.setInt(3, entry.status);
+                    pstmt.setString(4, entry.body);
+                    pstmt.setLong(5, entry.created);
+                    pstmt.executeUpdate();
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastPurge >= TimeUnit.MINUTES.toMillis(1)) {
+                    lastPurge = now;
+                    try (PreparedStatement pstmt =
+                            connection.prepareStatement("DELETE FROM " + TABLE + " WHERE created < ?")) {
+                        pstmt.setLong(1, now - TimeUnit.SECONDS.toMillis(ttl));
+                        pstmt.executeUpdate();
+                    }
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void createTable(Connection connection) throws SQLException {
+        synchronized (initialized) {
+            if (initialized.contains(connection))
+                return;
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS " + TABLE + " (key varchar(255), fingerprint text, "
+                        + "status integer, body text, created integer, PRIMARY KEY (key))");
+                stmt.execute("CREATE INDEX IF NOT EXISTS " + TABLE + "_created ON " + TABLE + " (created)");
+            }
+            initialized.add(connection);
+        }
+    }
+
+    /*
+     * Response of a request, not done while the request is still running
+     */
+    private static final class Entry {
+
+        final String fingerprint;
+        final long created;
+        boolean done;
+        int status;
+        String body;
+
+        Entry(String fingerprint, long created) {
+            this.fingerprint = fingerprint;
+            this.created = created;
+        }
+
+        void complete(int status, String body) {
+            this.status = status;
+            this.body = body;
+            this.done = true;
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.dorianquell.codingtask.model;
+
+import java.util.Date;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A patient as it is stored in the database: the values of the searchable columns and the FHIR resource as a json
+ */
+@Getter
+@AllArgsConstructor
+public class PatientRecord {
+
+    private String id;
+
+    private String firstname;
+
+    private String lastname;
+
+    private String gender;
+
+    private String birthdate;
+
+    private Date dateCreated;
+
+    private String fhir;
+
+    @Override
+    public String toString() {
+        return "PatientRecord [id=" + id + ", firstname=" + firstname + ", lastname=" + lastname + ", gender=" + gender
+                + ", birthdate=" + birthdate + ", dateCreated=" + dateCreated + "]";
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.dorianquell.codingtask.monitoring;
+
+import java.util.List;
+import java.util.TreeSet;
+
+import lombok.Getter;
+
+/**
+ * Phase breakdown of a single search request. All times are in nanoseconds. Every search gets a profile, but only sampled
+ * profiles time the fetching and decoding of each row separately and measure the response size.
+ */
+@Getter
+public class SearchProfile {
+
+    private final long startNanos = System.nanoTime();
+
+    private final boolean sampled;
+
+    private long sqlBuildNanos;
+    private long executeNanos;
+    private long fetchNanos;
+    private long decodeNanos;
+    private long serializeNanos;
+    private long totalNanos;
+    private long bytesWritten;
+    private int rowCount;
+
+    // Only the names of the search parameters are kept, their values may contain patient data
+    private final TreeSet<String> parameters = new TreeSet<String>();
+
+    // Needed to get the query plan of slow searches
+    private String sql;
+    private List<String> values;
+
+    /**
+     * @param sampled
+     *            true if the fetch and decode time of each row and the response size should be recorded as well
+     */
+    public SearchProfile(boolean sampled) {
+        this.sampled = sampled;
+    }
+
+    /**
+     * @param sql
+     *            the generated search query, null if the search was answered by the in-memory mirror
+     * @param parameters
+     *            names of the search parameters used in the query
+     * @param values
+     *            of the query placeholders
+     * @param nanos
+     *            time needed to build the query
+     */
+    public void sqlBuilt(String sql, Iterable<String> parameters, List<String> values, long nanos) {
+        this.sql = sql;
+        this.values = values;
+        parameters.forEach(this.parameters::add);
+        sqlBuildNanos = nanos;
+    }
+
+    public void executed(long nanos) {
+        executeNanos = nanos;
+    }
+
+    /**
+     * @param rows
+     *            number of fetched rows
+     * @param fetch
+     *            time needed to step through the result set and read the rows
+     * @param decode
+     *            time needed to parse the rows into json objects
+     */
+    public void fetched(int rows, long fetch, long decode) {
+        rowCount = rows;
+        fetchNanos = fetch;
+        decodeNanos = decode;
+    }
+
+    /**
+     * Used by profiles which are not sampled, the decoding is not timed separately
+     * 
+     * @param rows
+     *            number of fetched rows
+     * @param nanos
+     *            time needed to read the rows and parse them into json objects
+     */
+    public void fetched(int rows, long nanos) {
+        rowCount = rows;
+        fetchNanos = nanos;
+    }
+
+    /**
+     * Ends the profile
+     * 
+     * @param nanos
+     *            time needed to serialize the response
+     * @param bytes
+     *            size of the response body
+     */
+    public void serialized(long nanos, long bytes) {
+        bytesWritten = bytes;
+        serialized(nanos);
+    }
+
+    /**
+     * Ends the profile without recording the response size, used by profiles which are not sampled
+     * 
+     * @param nanos
+     *            time needed to serialize the response
+     */
+    public void serialized(long nanos) {
+        serializeNanos = nanos;
+        totalNanos = System.nanoTime() - startNanos;
+    }
+
+}
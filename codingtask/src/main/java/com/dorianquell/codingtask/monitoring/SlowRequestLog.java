@@ -0,0 +1,102 @@
+package com.dorianquell.codingtask.monitoring;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.StringJoiner;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Logs searches which take longer than {@code slowlogthreshold} milliseconds together with their phase breakdown and query
+ * plan. Every search is checked against the threshold, but only a share of {@code slowlogsamplerate} searches is sampled
+ * for the per row split into fetching and decoding and the response size, so it can stay turned on in production.
+ */
+@Component
+public class SlowRequestLog {
+
+    private static final Logger log = LoggerFactory.getLogger(SlowRequestLog.class);
+
+    @Value("${slowlogthreshold:500}")
+    private long thresholdMillis;
+
+    @Value("${slowlogsamplerate:0.01}")
+    private double sampleRate;
+
+    /**
+     * @return a new profile for this request, sampled with a chance of {@code slowlogsamplerate}
+     */
+    public SearchProfile startProfile() {
+        return new SearchProfile(sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+
+    /**
+     * Logs the profile if the search took longer than the threshold
+     * 
+     * @param profile
+     *            of the finished search
+     * @param connection
+     *            the search was run on, used to get the query plan
+     * @return String with the logged entry or null if the search was not slow
+     */
+    public String finish(SearchProfile profile, Connection connection) {
+        if (profile.getTotalNanos() < TimeUnit.MILLISECONDS.toNanos(thresholdMillis))
+            return null;
+
+        String entry;
+        if (profile.isSampled()) {
+            entry = String.format(Locale.ROOT,
+                "slow_search total_ms=%.3f sql_build_ms=%.3f execute_ms=%.3f fetch_ms=%.3f decode_ms=%.3f "
+                        + "serialize_ms=%.3f bytes=%d rows=%d params=%s plan=\"%s\"",
+                millis(profile.getTotalNanos()), millis(profile.getSqlBuildNanos()), millis(profile.getExecuteNanos()),
+                millis(profile.getFetchNanos()), millis(profile.getDecodeNanos()), millis(profile.getSerializeNanos()),
+                profile.getBytesWritten(), profile.getRowCount(), profile.getParameters(), queryPlan(profile, connection));
+        } else {
+            // Without sampling fetching and decoding are only timed together and the response size is unknown
+            entry = String.format(Locale.ROOT,
+                "slow_search total_ms=%.3f sql_build_ms=%.3f execute_ms=%.3f fetch_decode_ms=%.3f serialize_ms=%.3f "
+                        + "rows=%d params=%s plan=\"%s\"",
+                millis(profile.getTotalNanos()), millis(profile.getSqlBuildNanos()), millis(profile.getExecuteNanos()),
+                millis(profile.getFetchNanos()), millis(profile.getSerializeNanos()), profile.getRowCount(),
+                profile.getParameters(), queryPlan(profile, connection));
+        }
+        log.warn(entry);
+        return entry;
+    }
+
+    /*
+     * Runs EXPLAIN QUERY PLAN for the query of the profile, only done for slow searches
+     */
+    private String queryPlan(SearchProfile profile, Connection connection) {
+        // Searches answered by the in-memory mirror don't have a query
+        if (profile.getSql() == null)
+            return "mirror";
+
+        StringJoiner plan = new StringJoiner("; ");
+        // Same lock as the statements of the PatientDataAccessService on this connection
+        synchronized (connection) {
+            try (PreparedStatement pstmt = connection.prepareStatement("EXPLAIN QUERY PLAN " + profile.getSql())) {
+                for (int i = 0; i < profile.getValues().size(); i++)
+                    pstmt.setString(i + 1, profile.getValues().get(i));
+                ResultSet res = pstmt.executeQuery();
+                while (res.next())
+                    plan.add(res.getString("detail"));
+            } catch (SQLException e) {
+                return "unavailable: " + e.getMessage();
+            }
+        }
+        return plan.toString();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+}
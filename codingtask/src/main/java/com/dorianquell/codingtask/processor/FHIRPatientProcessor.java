@@ -10,6 +10,7 @@ import org.hl7.fhir.r4.model.Enumerations.AdministrativeGender;
 import org.json.JSONObject;
 
 import com.dorianquell.codingtask.model.PatientInput;
+import com.dorianquell.codingtask.model.PatientRecord;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.parser.IParser;
@@ -66,4 +67,15 @@ public interface FHIRPatientProcessor {
         return new JSONObject(ctx.newJsonParser().encodeResourceToString(patient)).toString(4);
     }
 
+    /**
+     * @param patient
+     *            FHIR resource to be stored
+     * @return PatientRecord with the column values and the json of the patient
+     */
+    public static PatientRecord createPatientRecord(Patient patient) {
+        return new PatientRecord(patient.getId(), patient.getName().get(0).getGivenAsSingleString(),
+            patient.getName().get(0).getFamily(), patient.getGender().toString().toLowerCase(),
+            patient.getBirthDateElement().asStringValue(), patient.getMeta().getLastUpdated(), parseFHIR(patient));
+    }
+
 }
@@ -0,0 +1,211 @@
+package com.dorianquell.codingtask.processor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+import org.json.JSONObject;
+
+import com.dorianquell.codingtask.model.PatientRecord;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import lombok.Getter;
+
+/**
+ * Reads patients in the same json format as {@link com.dorianquell.codingtask.model.PatientInput} token by token and
+ * writes the FHIR resource of each patient directly as a json, without building a HAPI resource. Only one patient is held
+ * in memory at a time, so payloads with any number of patients can be read with bounded memory.
+ *
+ * The records contain the same column values and the same FHIR json as
+ * {@link FHIRPatientProcessor#createFHIRPatient(com.dorianquell.codingtask.model.PatientInput)} followed by
+ * {@link FHIRPatientProcessor#createPatientRecord(org.hl7.fhir.r4.model.Patient)}. The json is formatted by
+ * {@link JSONObject#toString(int)} like in {@link FHIRPatientProcessor#parseFHIR(org.hl7.fhir.r4.model.Patient)}, so the
+ * stored text is the same character for character - the key order depends on the org.json implementation.
+ */
+public class StreamingPatientParser {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    // Format HAPI uses for FHIR instants, e.g. 2022-04-10T12:00:00.000+02:00
+    private static final DateTimeFormatter INSTANT_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSxxx");
+
+    /**
+     * Reads a single patient or an array of patients and hands every valid patient to the given function as soon as it is
+     * read. Patients with an invalid birth date or a field which is not a single value are rejected, unknown fields are
+     * ignored.
+     *
+     * @param in
+     *            json containing one patient or an array of patients
+     * @param store
+     *            function storing a patient, returns if the patient was stored
+     * @return Result with the number of stored and rejected patients
+     * @throws IOException
+     *             if the json is malformed, patients read before the error have already been stored
+     */
+    public static Result parse(InputStream in, Predicate<PatientRecord> store) throws IOException {
+        Result result = new Result();
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() != JsonToken.END_ARRAY)
+                    result.count(readPatient(parser, store));
+            } else if (token == JsonToken.START_OBJECT) {
+                result.count(readPatient(parser, store));
+            } else {
+                throw new JsonParseException(parser, "Expected a patient or an array of patients");
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Reads the patient starting at the current token and stores it if it is valid
+     */
+    private static boolean readPatient(JsonParser parser, Predicate<PatientRecord> store) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return false;
+        }
+
+        String firstname = null, lastname = null, gender = null, birthdate = null;
+        boolean valid = true;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value.isStructStart()) {
+                parser.skipChildren();
+                valid &= !isPatientField(field);
+                continue;
+            }
+
+            String text = value == JsonToken.VALUE_NULL ? null : parser.getText();
+            switch (field) {
+                case "firstname":
+                    firstname = text;
+                    break;
+                case "lastname":
+                    lastname = text;
+                    break;
+                case "gender":
+                    gender = text;
+                    break;
+                case "birthdate":
+                    birthdate = text;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (birthdate != null) {
+            try {
+                birthdate = LocalDate.parse(birthdate).toString();
+            } catch (DateTimeParseException e) {
+                valid = false;
+            }
+        }
+        return valid && store.test(createPatientRecord(firstname, lastname, gender, birthdate));
+    }
+
+    /*
+     * Column values the same way the HAPI resource stores them: blank names are left out of the resource, an empty last name
+     * is stored as null and a blank first name as an empty string
+     */
+    private static PatientRecord createPatientRecord(String firstname, String lastname, String gender, String birthdate)
+            throws IOException {
+        String id = UUID.randomUUID().toString();
+        Date dateCreated = new Date();
+        String fhirGender = toFHIRGender(gender);
+        String fhir = writeFHIR(id, dateCreated, firstname, lastname, fhirGender, birthdate);
+        return new PatientRecord(id, isBlank(firstname) ? "" : firstname,
+            lastname == null || lastname.isEmpty() ? null : lastname, fhirGender, birthdate, dateCreated, fhir);
+    }
+
+    private static String writeFHIR(String id, Date lastUpdated, String firstname, String lastname, String gender,
+            String birthdate) throws IOException {
+        StringWriter writer = new StringWriter(384);
+        try (JsonGenerator generator = jsonFactory.createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.writeStringField("resourceType", "Patient");
+            generator.writeStringField("id", id);
+            generator.writeObjectFieldStart("meta");
+            generator.writeStringField("lastUpdated",
+                lastUpdated.toInstant().atZone(ZoneId.systemDefault()).format(INSTANT_FORMAT));
+            generator.writeEndObject();
+
+            boolean hasFamily = !isBlank(lastname);
+            boolean hasGiven = !isBlank(firstname);
+            if (hasFamily || hasGiven) {
+                generator.writeArrayFieldStart("name");
+                generator.writeStartObject();
+                if (hasFamily)
+                    generator.writeStringField("family", lastname);
+                if (hasGiven) {
+                    generator.writeArrayFieldStart("given");
+                    generator.writeString(firstname);
+                    generator.writeEndArray();
+                }
+                generator.writeEndObject();
+                generator.writeEndArray();
+            }
+
+            generator.writeStringField("gender", gender);
+            if (birthdate != null)
+                generator.writeStringField("birthDate", birthdate);
+            generator.writeEndObject();
+        }
+        // Same formatting as FHIRPatientProcessor.parseFHIR
+        return new JSONObject(writer.toString()).toString(4);
+    }
+
+    private static String toFHIRGender(String gender) {
+        if (gender != null)
+            switch (gender.toLowerCase()) {
+                case "male":
+                case "female":
+                case "other":
+                    return gender.toLowerCase();
+                default:
+                    break;
+            }
+        return "unknown";
+    }
+
+    private static boolean isPatientField(String field) {
+        return field.equals("firstname") || field.equals("lastname") || field.equals("gender") || field.equals("birthdate");
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    /**
+     * Number of stored and rejected patients of one payload
+     */
+    @Getter
+    public static class Result {
+
+        private int stored;
+
+        private int rejected;
+
+        private void count(boolean isStored) {
+            if (isStored)
+                stored++;
+            else
+                rejected++;
+        }
+    }
+
+}
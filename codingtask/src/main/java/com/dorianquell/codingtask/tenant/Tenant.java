@@ -0,0 +1,190 @@
+package com.dorianquell.codingtask.tenant;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+import lombok.Getter;
+
+/**
+ * Database, budgets and metrics of one tenant. The database is opened and closed by the {@link TenantRegistry}, the budgets
+ * and metrics stay while the database is closed.
+ *
+ * Every request needs one of the tenant's connection permits for as long as it runs and one token of its rate budget. The
+ * rate budget is a token bucket holding at most one second worth of requests.
+ */
+public class Tenant {
+
+    @Getter
+    private final String id;
+
+    @Getter
+    private final String dbfile;
+
+    // Connection to the database of the tenant, null while it is closed
+    @Getter
+    private volatile Connection connection;
+
+    // Held while the database is opened, so it is only opened once
+    @Getter
+    private final Object openLock = new Object();
+
+    private final int maxConnections;
+    private final Semaphore connectionPermits;
+
+    private final double rate;
+    private double tokens;
+    private long refilled;
+
+    @Getter
+    private volatile long lastUsed;
+    private volatile long lastCleanUp;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+
+    /**
+     * @param id
+     *            of the tenant
+     * @param dbfile
+     *            SQLite database file of the tenant
+     * @param maxConnections
+     *            number of requests the tenant can run at the same time
+     * @param rate
+     *            number of requests per second the tenant can send
+     */
+    public Tenant(String id, String dbfile, int maxConnections, double rate) {
+        this.id = id;
+        this.dbfile = dbfile;
+        this.maxConnections = maxConnections;
+        this.connectionPermits = new Semaphore(maxConnections);
+        this.rate = rate;
+        this.tokens = Math.max(rate, 1);
+        this.refilled = System.nanoTime();
+        this.lastUsed = refilled;
+    }
+
+    /**
+     * Takes a token of the rate budget and a connection permit for a request
+     *
+     * @return boolean showing if the tenant is within its budgets, the request has to be rejected otherwise
+     */
+    synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(Math.max(rate, 1), tokens + (now - refilled) * rate / TimeUnit.SECONDS.toNanos(1));
+        refilled = now;
+        if (tokens < 1 || !connectionPermits.tryAcquire()) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        tokens--;
+        lastUsed = now;
+        requests.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Takes a connection permit for work of the service itself, it doesn't count against the rate budget
+     */
+    boolean tryAcquirePermit() {
+        return connectionPermits.tryAcquire();
+    }
+
+    /**
+     * Gives back the connection permit of a finished request
+     *
+     * @param nanos
+     *            the request took
+     * @param error
+     *            if the request failed
+     */
+    void release(long nanos, boolean error) {
+        totalNanos.addAndGet(nanos);
+        if (error)
+            errors.incrementAndGet();
+        lastUsed = System.nanoTime();
+        connectionPermits.release();
+    }
+
+    /**
+     * Gives back a connection permit taken by {@link #tryAcquirePermit()}
+     */
+    void releasePermit() {
+        connectionPermits.release();
+    }
+
+    /**
+     * @return number of requests currently using the database
+     */
+    int inFlight() {
+        return maxConnections - connectionPermits.availablePermits();
+    }
+
+    void open(Connection connection) {
+        this.connection = connection;
+        opened.incrementAndGet();
+    }
+
+    /**
+     * Closes the database if no request is using it. Requests take their permit under the same lock, so a request which got
+     * a permit always finds its database open or opens it again.
+     *
+     * @return boolean showing if the database was closed
+     */
+    synchronized boolean closeIfIdle() {
+        if (inFlight() > 0)
+            return false;
+        close();
+        return true;
+    }
+
+    void close() {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        connection = null;
+    }
+
+    /**
+     * @param interval
+     *            between two clean ups in nanoseconds
+     * @return boolean showing if the database is due for a clean up
+     */
+    boolean cleanUpDue(long interval) {
+        return lastCleanUp == 0 || System.nanoTime() - lastCleanUp >= interval;
+    }
+
+    /**
+     * Counts the clean up as done
+     */
+    void cleanedUp() {
+        lastCleanUp = System.nanoTime();
+    }
+
+    /**
+     * @return JSONObject with the metrics of the tenant
+     */
+    public JSONObject getMetrics() {
+        long count = requests.get();
+        JSONObject metrics = new JSONObject();
+        metrics.put("tenant", id);
+        metrics.put("open", connection != null);
+        metrics.put("opened", opened.get());
+        metrics.put("in_flight", inFlight());
+        metrics.put("requests", count);
+        metrics.put("rejected", rejected.get());
+        metrics.put("errors", errors.get());
+        metrics.put("avg_ms", count == 0 ? 0 : totalNanos.get() / 1e6 / count);
+        return metrics;
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.dorianquell.codingtask.tenant;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import com.dorianquell.codingtask.api.PatientController;
+import com.dorianquell.codingtask.dao.PatientDataAccessService;
+
+/**
+ * Routes the requests of the {@link PatientController} to the database of their tenant. The tenant is taken from the path
+ * prefix /tenants/{tenant} or from the X-Tenant-ID header, requests without a tenant use the default database. Requests
+ * for tenants which are not configured are rejected. The
+ * connection to use is stored in the request attribute {@link #CONNECTION_ATTRIBUTE}, the ID of the tenant in
+ * {@link #TENANT_ID_ATTRIBUTE}.
+ */
+@Component
+public class TenantInterceptor implements HandlerInterceptor {
+
+    public static final String TENANT_HEADER = "X-Tenant-ID";
+
+    public static final String CONNECTION_ATTRIBUTE = "tenantConnection";
+
+    // Not set for requests to the default database
+    public static final String TENANT_ID_ATTRIBUTE = "tenantId";
+
+    private static final String TENANT_ATTRIBUTE = "tenant";
+
+    private static final String START_ATTRIBUTE = "tenantRequestStart";
+
+    @Autowired
+    PatientDataAccessService pda;
+
+    @Autowired
+    TenantRegistry registry;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws IOException {
+        if (!(handler instanceof HandlerMethod) || ((HandlerMethod) handler).getBeanType() != PatientController.class)
+            return true;
+
+        String id = getTenantId(request);
+        if (id == null) {
+            request.setAttribute(CONNECTION_ATTRIBUTE, pda.getDbConnection());
+            return true;
+        }
+        if (!TenantRegistry.isValidId(id))
+            return reject(response, HttpStatus.BAD_REQUEST, "Invalid tenant ID!");
+        if (!registry.isConfigured(id))
+            return reject(response, HttpStatus.NOT_FOUND, "Unknown tenant " + id + "!");
+
+        Tenant tenant;
+        try {
+            tenant = registry.acquire(id);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return reject(response, HttpStatus.SERVICE_UNAVAILABLE, "Database of tenant " + id + " is not available!");
+        }
+        if (tenant == null)
+            return reject(response, HttpStatus.TOO_MANY_REQUESTS, "Tenant " + id + " is over its request budget!");
+
+        request.setAttribute(TENANT_ATTRIBUTE, tenant);
+        request.setAttribute(TENANT_ID_ATTRIBUTE, id);
+        request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+        request.setAttribute(CONNECTION_ATTRIBUTE, tenant.getConnection());
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+            Exception ex) {
+        Tenant tenant = (Tenant) request.getAttribute(TENANT_ATTRIBUTE);
+        if (tenant != null) {
+            request.removeAttribute(TENANT_ATTRIBUTE);
+            long nanos = System.nanoTime() - (Long) request.getAttribute(START_ATTRIBUTE);
+            registry.release(tenant, nanos, ex != null || response.getStatus() >= 400);
+        }
+    }
+
+    /*
+     * The path prefix takes precedence over the header
+     */
+    @SuppressWarnings("unchecked")
+    private static String getTenantId(HttpServletRequest request) {
+        Map<String, String> pathVariables =
+                (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        if (pathVariables != null && pathVariables.containsKey(TENANT_ATTRIBUTE))
+            return pathVariables.get(TENANT_ATTRIBUTE);
+        return request.getHeader(TENANT_HEADER);
+    }
+
+    private static boolean reject(HttpServletResponse response, HttpStatus status, String message) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType("text/plain;charset=UTF-8");
+        response.getWriter().write(message);
+        return false;
+    }
+
+}
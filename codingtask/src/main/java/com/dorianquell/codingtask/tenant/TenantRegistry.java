@@ -0,0 +1,244 @@
+package com.dorianquell.codingtask.tenant;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.json.JSONArray;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.dorianquell.codingtask.dao.PatientDataAccessService;
+
+/**
+ * Keeps track of the tenants and their databases. Only the tenants listed in {@code tenants} are accepted, so clients can't
+ * create new database files. Every tenant has its own SQLite database file next to the default database, e.g.
+ * patientdata-clinic1.db. The database of a tenant is opened with its first request and closed again once the tenant was
+ * idle for {@code tenantidletimeout} seconds. At most {@code tenantmaxopen} databases are kept open, the least recently
+ * used idle database is closed first.
+ *
+ * A database is opened while holding only the lock of its tenant, so opening it - including a migration of its tables -
+ * doesn't block the requests of other tenants. The daily clean up runs when a database is opened and then once a day
+ * while it stays open, so a database reopened after a long time doesn't serve expired patients.
+ */
+@Component
+public class TenantRegistry {
+
+    // Tenant IDs are part of the database file name
+    private static final Pattern TENANT_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    @Autowired
+    PatientDataAccessService pda;
+
+    @Value("${dbfile:patientdata.db}")
+    private String dbfile;
+
+    @Value("${tenants:}")
+    private String[] tenantIds;
+
+    @Value("${tenantmaxopen:16}")
+    private int maxOpen;
+
+    @Value("${tenantidletimeout:300}")
+    private long idleTimeout;
+
+    @Value("${tenantconnections:4}")
+    private int maxConnections;
+
+    @Value("${tenantrate:50}")
+    private double rate;
+
+    private static final long CLEAN_UP_INTERVAL = TimeUnit.DAYS.toNanos(1);
+
+    // All configured tenants, keeps their budgets and metrics. Only filled on start up, so it can be read without a lock.
+    private final Map<String, Tenant> tenants = new LinkedHashMap<String, Tenant>();
+
+    // Tenants with an open database in access order, the least recently used first
+    private final LinkedHashMap<String, Tenant> open = new LinkedHashMap<String, Tenant>(16, 0.75f, true);
+
+    private ScheduledExecutorService sweeper;
+
+    /**
+     * @param id
+     *            of a tenant
+     * @return boolean showing if the ID can be used as a tenant
+     */
+    public static boolean isValidId(String id) {
+        return TENANT_ID.matcher(id).matches();
+    }
+
+    /**
+     * @param id
+     *            of a tenant
+     * @return boolean showing if the tenant is configured
+     */
+    public boolean isConfigured(String id) {
+        return tenants.containsKey(id);
+    }
+
+    /**
+     * Reserves the budgets of the tenant for one request and opens its database if needed. Every successful call has to be
+     * followed by {@link #release(Tenant, long, boolean)}.
+     *
+     * @param id
+     *            of the tenant, has to be configured
+     * @return Tenant with an open database or null if the tenant is over its connection or rate budget
+     * @throws SQLException
+     *             if the database of the tenant could not be opened
+     */
+    public Tenant acquire(String id) throws SQLException {
+        Tenant tenant = tenants.get(id);
+        if (tenant == null)
+            throw new IllegalArgumentException("Unknown tenant " + id);
+        if (!tenant.tryAcquire())
+            return null;
+
+        // The permit of the request keeps the database from being closed, only requests of this tenant wait for the open
+        synchronized (tenant.getOpenLock()) {
+            if (tenant.getConnection() == null) {
+                Connection connection = pda.openDatabase(tenant.getDbfile());
+                if (connection == null) {
+                    tenant.release(0, true);
+                    throw new SQLException("Could not open the database of tenant " + id);
+                }
+                if (tenant.cleanUpDue(CLEAN_UP_INTERVAL)) {
+                    pda.deleteExpiredPatients(connection);
+                    tenant.cleanedUp();
+                }
+                tenant.open(connection);
+            }
+        }
+
+        synchronized (this) {
+            // Also marks the tenant as the most recently used one
+            open.put(tenant.getId(), tenant);
+            closeLeastRecentlyUsed();
+        }
+        return tenant;
+    }
+
+    /**
+     * Gives back the budgets reserved by {@link #acquire(String)}
+     *
+     * @param tenant
+     *            of the finished request
+     * @param nanos
+     *            the request took
+     * @param error
+     *            if the request failed
+     */
+    public void release(Tenant tenant, long nanos, boolean error) {
+        tenant.release(nanos, error);
+    }
+
+    /**
+     * @param id
+     *            of the tenant
+     * @return Tenant or null if the tenant is not configured
+     */
+    public Tenant getTenant(String id) {
+        return tenants.get(id);
+    }
+
+    /**
+     * @return JSONArray with the metrics of all tenants
+     */
+    public JSONArray getMetrics() {
+        JSONArray metrics = new JSONArray();
+        for (Tenant tenant : tenants.values())
+            metrics.put(tenant.getMetrics());
+        return metrics;
+    }
+
+    /**
+     * Closes the databases of all idle tenants and runs the daily clean up on the open databases. Called regularly by the
+     * sweeper.
+     */
+    public void sweep() {
+        List<Tenant> cleanUp = new ArrayList<Tenant>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            Iterator<Tenant> iterator = open.values().iterator();
+            while (iterator.hasNext()) {
+                Tenant tenant = iterator.next();
+                if (now - tenant.getLastUsed() >= TimeUnit.SECONDS.toNanos(idleTimeout) && tenant.closeIfIdle()) {
+                    iterator.remove();
+                } else if (tenant.cleanUpDue(CLEAN_UP_INTERVAL) && tenant.tryAcquirePermit()) {
+                    // The permit keeps the database open during the clean up. Without a free permit the clean up is tried
+                    // again with the next sweep.
+                    tenant.cleanedUp();
+                    cleanUp.add(tenant);
+                }
+            }
+        }
+
+        // Outside of the lock, so other tenants are not blocked by the clean up
+        for (Tenant tenant : cleanUp) {
+            try {
+                pda.deleteExpiredPatients(tenant.getConnection());
+            } finally {
+                tenant.releasePermit();
+            }
+        }
+    }
+
+    /*
+     * Closes the least recently used idle databases until at most maxOpen databases are open. Databases in use stay open,
+     * so there can be more open databases for a short time.
+     */
+    private void closeLeastRecentlyUsed() {
+        Iterator<Tenant> iterator = open.values().iterator();
+        while (open.size() > maxOpen && iterator.hasNext()) {
+            if (iterator.next().closeIfIdle())
+                iterator.remove();
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        for (String id : tenantIds) {
+            id = id.trim();
+            if (id.isEmpty())
+                continue;
+            if (!isValidId(id))
+                throw new IllegalArgumentException("Invalid tenant ID " + id + " in tenants");
+            tenants.put(id,
+                new Tenant(id, dbfile.replaceFirst("(\\.db)?$", "-" + id + ".db"), maxConnections, rate));
+        }
+        startSweeper();
+    }
+
+    private void startSweeper() {
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tenant-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, Math.min(idleTimeout, 60));
+        sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.SECONDS);
+    }
+
+    /*
+     * Will be run right before shut down, used to close all tenant databases
+     */
+    @PreDestroy
+    private synchronized void onClose() {
+        sweeper.shutdownNow();
+        for (Tenant tenant : open.values())
+            tenant.close();
+        open.clear();
+    }
+
+}
@@ -0,0 +1,159 @@
+package com.dorianquell.codingtask;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import com.dorianquell.codingtask.dao.PatientDataAccessService;
+import com.dorianquell.codingtask.idempotency.IdempotencyStore;
+import com.dorianquell.codingtask.tenant.TenantInterceptor;
+
+@SpringBootTest(properties = { "dbfile=patientdata-idempotency.db", "idempotencypersist=true", "idempotencymaxkeys=2",
+        "idempotencyttl=3", "tenants=clinic" })
+@AutoConfigureMockMvc
+public class IdempotencyTests {
+
+    @Autowired
+    MockMvc mvc;
+
+    @Autowired
+    IdempotencyStore idempotencyStore;
+
+    @Autowired
+    PatientDataAccessService pda;
+
+    @BeforeAll
+    public static void deleteDBs() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get("."), "patientdata-idempotency*.db")) {
+            for (Path file : files)
+                Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testRepeatedRequestIsReplayed() throws Exception {
+        JSONObject before = metrics();
+        MockHttpServletResponse first = putPatient("replay", patient("Replay", "1951-05-15"), null);
+        assertEquals(200, first.getStatus());
+        assertNull(first.getHeader(IdempotencyStore.REPLAYED_HEADER));
+
+        // Same response with the same patient ID, the patient is stored only once
+        MockHttpServletResponse retry = putPatient("replay", patient("Replay", "1951-05-15"), null);
+        assertEquals(200, retry.getStatus());
+        assertEquals(first.getContentAsString(), retry.getContentAsString());
+        assertEquals("true", retry.getHeader(IdempotencyStore.REPLAYED_HEADER));
+        assertEquals(1, search("Replay", null));
+
+        // The key can't be reused for another patient
+        assertEquals(422, putPatient("replay", patient("Replay", "1960-01-01"), null).getStatus());
+
+        // Keys are kept per tenant
+        MockHttpServletResponse tenant = putPatient("replay", patient("Replay", "1951-05-15"), "clinic");
+        assertEquals(200, tenant.getStatus());
+        assertNotEquals(first.getContentAsString(), tenant.getContentAsString());
+        assertEquals(1, search("Replay", "clinic"));
+
+        JSONObject after = metrics();
+        assertEquals(1, after.getLong("hits") - before.getLong("hits"));
+        assertEquals(2, after.getLong("misses") - before.getLong("misses"));
+        assertEquals(1, after.getLong("mismatches") - before.getLong("mismatches"));
+    }
+
+    @Test
+    public void testPersistedKeys() throws Exception {
+        MockHttpServletResponse first = putPatient("persisted1", patient("Persisted1", "1951-05-15"), null);
+        putPatient("persisted2", patient("Persisted2", "1951-05-15"), null);
+        putPatient("persisted3", patient("Persisted3", "1951-05-15"), null);
+
+        // Only two keys are kept in memory, the first one is found in the database
+        MockHttpServletResponse retry = putPatient("persisted1", patient("Persisted1", "1951-05-15"), null);
+        assertEquals(first.getContentAsString(), retry.getContentAsString());
+        assertEquals("true", retry.getHeader(IdempotencyStore.REPLAYED_HEADER));
+    }
+
+    @Test
+    public void testExpiredKeys() throws Exception {
+        MockHttpServletResponse first = putPatient("expired", patient("Expired", "1951-05-15"), null);
+        Thread.sleep(3100);
+
+        // After the TTL the request is run again and replaces the patient
+        MockHttpServletResponse retry = putPatient("expired", patient("Expired", "1951-05-15"), null);
+        assertNull(retry.getHeader(IdempotencyStore.REPLAYED_HEADER));
+        assertNotEquals(first.getContentAsString(), retry.getContentAsString());
+        assertEquals(1, search("Expired", null));
+    }
+
+    @Test
+    public void testRunningAndFailedRequests() {
+        AtomicInteger runs = new AtomicInteger();
+
+        // A repeated request is rejected while the first one is still running
+        ResponseEntity<String> response = idempotencyStore.execute(null, "running", "fingerprint", pda.getDbConnection(),
+            () -> {
+                runs.incrementAndGet();
+                ResponseEntity<String> repeated = idempotencyStore.execute(null, "running", "fingerprint",
+                    pda.getDbConnection(), () -> new ResponseEntity<>("second", HttpStatus.OK));
+                assertEquals(HttpStatus.CONFLICT, repeated.getStatusCode());
+                return new ResponseEntity<>("first", HttpStatus.OK);
+            });
+        assertEquals("first", response.getBody());
+        assertEquals(1, runs.get());
+
+        // Server errors are not remembered so the request can be retried
+        for (int i = 0; i < 2; i++) {
+            idempotencyStore.execute(null, "failing", "fingerprint", pda.getDbConnection(), () -> {
+                runs.incrementAndGet();
+                return new ResponseEntity<>("failed", HttpStatus.INTERNAL_SERVER_ERROR);
+            });
+        }
+        assertEquals(3, runs.get());
+    }
+
+    private MockHttpServletResponse putPatient(String key, String patient, String tenant) throws Exception {
+        return mvc.perform(put(tenant == null ? "/" : "/tenants/" + tenant).header(IdempotencyStore.KEY_HEADER, key)
+                .contentType(MediaType.APPLICATION_JSON).content(patient)).andReturn().getResponse();
+    }
+
+    private int search(String firstname, String tenant) throws Exception {
+        MockHttpServletRequestBuilder request = get("/search").param("firstname", firstname);
+        if (tenant != null)
+            request.header(TenantInterceptor.TENANT_HEADER, tenant);
+        String body = mvc.perform(request).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+        return new JSONArray(body).length();
+    }
+
+    private JSONObject metrics() throws Exception {
+        return new JSONObject(mvc.perform(get("/metrics/idempotency")).andExpect(status().isOk()).andReturn()
+                .getResponse().getContentAsString());
+    }
+
+    private static String patient(String firstname, String birthdate) {
+        return "{\"firstname\":\"" + firstname + "\",\"lastname\":\"Simpson\",\"gender\":\"male\",\"birthdate\":\""
+                + birthdate + "\"}";
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.dorianquell.codingtask;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.Patient;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.dorianquell.codingtask.dao.PatientDataAccessService;
+import com.dorianquell.codingtask.model.PatientInput;
+import com.dorianquell.codingtask.monitoring.SearchProfile;
+import com.dorianquell.codingtask.monitoring.SlowRequestLog;
+import com.dorianquell.codingtask.processor.FHIRPatientProcessor;
+
+@SpringBootTest(properties = { "readmirror=true", "dbfile=patientdata-mirror.db" })
+public class MirroredPatientDataAccessServiceTest {
+
+    @Value("${dbfile}")
+    private String dbfile;
+
+    @Value("${tablename}")
+    private String tablename;
+
+    @Value("${viewname}")
+    private String viewname;
+
+    @Autowired
+    PatientDataAccessService pda;
+
+    @Autowired
+    SlowRequestLog slowRequestLog;
+
+    @BeforeEach
+    public void deleteDB() throws SQLException {
+        pda.getDbConnection().close();
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbfile);
+        connection.createStatement().executeUpdate("DROP VIEW IF EXISTS " + viewname);
+        connection.createStatement().executeUpdate("DROP TABLE IF EXISTS " + tablename);
+        connection.close();
+        pda.onStartUp();
+    }
+
+    @Test
+    public void testMirrorFollowsWrites() throws JSONException, SQLException {
+        Patient homer = FHIRPatientProcessor
+                .createFHIRPatient(new PatientInput("Homer", "Simpson", "male", LocalDate.parse("1951-05-15")));
+        Patient marge = FHIRPatientProcessor
+                .createFHIRPatient(new PatientInput("Marge", "Simpson", "female", LocalDate.parse("1956-03-19")));
+        Patient ned = FHIRPatientProcessor
+                .createFHIRPatient(new PatientInput("Ned", "Flanders", "male", LocalDate.parse("1950-01-01")));
+        pda.updatePatient(homer, pda.getDbConnection());
+        pda.updatePatient(marge, pda.getDbConnection());
+        pda.updatePatient(ned, pda.getDbConnection());
+        assertMirrorMatchesDatabase();
+
+        // Update replaces Homer
+        Patient homer2 = FHIRPatientProcessor
+                .createFHIRPatient(new PatientInput("Homer", "Simpson", "male", LocalDate.parse("1951-05-15")));
+        pda.updatePatient(homer2, pda.getDbConnection());
+        assertMirrorMatchesDatabase();
+
+        pda.deletePatient(marge.getId(), pda.getDbConnection());
+        assertMirrorMatchesDatabase();
+
+        pda.deletePatients(Arrays.asList(ned.getId()), pda.getDbConnection());
+        assertMirrorMatchesDatabase();
+
+        // A restart loads the patients from the database
+        pda.onStartUp();
+        assertMirrorMatchesDatabase();
+    }
+
+    @Test
+    public void testSearchProfile() throws JSONException {
+        pda.addPatient(FHIRPatientProcessor
+                .createFHIRPatient(new PatientInput("Homer", "Simpson", "male", LocalDate.parse("1951-05-15"))),
+            pda.getDbConnection());
+
+        Map<String, String> searchParameters = new HashMap<String, String>();
+        searchParameters.put("lastname", "Simpson");
+        searchParameters.put("invalid", "ignored");
+        SearchProfile profile = slowRequestLog.startProfile();
+        String body = pda.search(searchParameters, pda.getDbConnection(), profile).toString(4);
+        profile.serialized(0, body.length());
+
+        // Same as for the database search only the valid parameter names are logged
+        String entry = slowRequestLog.finish(profile, pda.getDbConnection());
+        assertTrue(entry.contains("rows=1"));
+        assertTrue(entry.contains("params=[lastname]"));
+        assertFalse(entry.contains("invalid"));
+        assertTrue(entry.contains("plan=\"mirror\""));
+    }
+
+    /*
+     * Compares the searches answered by the mirror with the same searches run directly on the database
+     */
+    private void assertMirrorMatchesDatabase() throws SQLException, JSONException {
+        assertEquals(queryDatabase("SELECT fhir FROM " + viewname).toString(),
+            pda.search(new HashMap<String, String>(), pda.getDbConnection()).toString());
+
+        Map<String, String> searchParameters = new HashMap<String, String>();
+        searchParameters.put("gender", "male");
+        assertEquals(queryDatabase("SELECT fhir FROM " + viewname + " WHERE gender = 'male'").toString(),
+            pda.search(searchParameters, pda.getDbConnection()).toString());
+    }
+
+    private JSONArray queryDatabase(String sql) throws SQLException, JSONException {
+        JSONArray result = new JSONArray();
+        ResultSet res = pda.getDbConnection().createStatement().executeQuery(sql);
+        while (res.next())
+            result.put(new JSONObject(res.getString("fhir")));
+        return result;
+    }
+
+}
@@ -0,0 +1,211 @@
+package com.dorianquell.codingtask;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.Patient;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.dorianquell.codingtask.dao.PatientDataAccessService;
+import com.dorianquell.codingtask.model.PatientInput;
+import com.dorianquell.codingtask.processor.FHIRPatientProcessor;
+
+@SpringBootTest(properties = { "partitioned=true", "dbfile=patientdata-partitioned.db", "tablename=testpartitioned",
+        "viewname=testpartitionedview" })
+public class PartitionedPatientDataAccessServiceTest {
+
+    @Value("${dbfile}")
+    private String dbfile;
+
+    @Value("${tablename}")
+    private String tablename;
+
+    @Value("${viewname}")
+    private String viewname;
+
+    @Autowired
+    PatientDataAccessService pda;
+
+    private static JSONArray input;
+
+    @BeforeAll
+    public static void init() throws IOException, JSONException {
+        // Load test data and store it in a json array
+        String file = new String(Files.readAllBytes(Paths.get("src/test/resources/testPatients.json")),
+            Charset.defaultCharset());
+        input = new JSONArray(file);
+    }
+
+    @BeforeEach
+    public void deleteDB() throws SQLException {
+        pda.getDbConnection().close();
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbfile);
+        connection.createStatement().executeUpdate("DROP VIEW IF EXISTS " + viewname);
+        connection.createStatement().executeUpdate("DROP TABLE IF EXISTS " + tablename);
+        for (String partition : getPartitions(connection))
+            connection.createStatement().executeUpdate("DROP TABLE " + partition);
+        connection.close();
+        pda.onStartUp();
+    }
+
+    @Test
+    public void testUpdateMovesPatientIntoNewPartition() throws JSONException, SQLException {
+        // Add a patient created three months ago
+        Patient patient = createPatient(monthsAgo(3));
+        assertTrue(pda.addPatient(patient, pda.getDbConnection()));
+        assertEquals(2, getPartitions(pda.getDbConnection()).size());
+        assertEquals(1, count(partitionName(monthsAgo(3))));
+
+        // Updating the patient moves it into the partition of the current month
+        Patient patient2 = createPatient(new Date());
+        assertTrue(pda.updatePatient(patient2, pda.getDbConnection()));
+        assertEquals(0, count(partitionName(monthsAgo(3))));
+        assertEquals(1, count(partitionName(new Date())));
+
+        // Search finds the patient through the view over all partitions
+        Map<String, String> searchParameters = new HashMap<String, String>();
+        searchParameters.put("lastname", "Simpson");
+        assertEquals(FHIRPatientProcessor.parseFHIR(patient2),
+            pda.search(searchParameters, pda.getDbConnection()).getJSONObject(0).toString(4));
+    }
+
+    @Test
+    public void testDeletePatientRecordsOlderThanDropsPartitions() throws JSONException, SQLException {
+        Patient oldPatient = createPatient(monthsAgo(3));
+        Patient newPatient = createPatient(new Date());
+        pda.addPatient(oldPatient, pda.getDbConnection());
+        pda.addPatient(newPatient, pda.getDbConnection());
+        assertEquals(2, pda.search(new HashMap<String, String>(), pda.getDbConnection()).length());
+
+        // The partition of the old patient is dropped as a whole
+        pda.deletePatientRecordsOlderThan(monthsAgo(1), pda.getDbConnection());
+        assertFalse(getPartitions(pda.getDbConnection()).contains(partitionName(monthsAgo(3))));
+
+        JSONArray result = pda.search(new HashMap<String, String>(), pda.getDbConnection());
+        assertEquals(1, result.length());
+        assertEquals(newPatient.getIdElement().getIdPart(), result.getJSONObject(0).getString("id"));
+
+        // Deleting within the current partition still works row by row
+        pda.deletePatientRecordsOlderThan(new Date(), pda.getDbConnection());
+        assertEquals(0, pda.search(new HashMap<String, String>(), pda.getDbConnection()).length());
+    }
+
+    @Test
+    public void testMigrateToPartitions() throws JSONException, SQLException {
+        // Create an unpartitioned table as it was used before
+        Patient patient = createPatient(monthsAgo(2));
+        pda.getDbConnection().close();
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbfile);
+        for (String partition : getPartitions(connection))
+            connection.createStatement().executeUpdate("DROP TABLE " + partition);
+        connection.createStatement().executeUpdate("DROP VIEW IF EXISTS " + viewname);
+        connection.createStatement().executeUpdate("CREATE TABLE " + tablename + " (id varchar(255), "
+                + "firstname varchar(255), lastname varchar(255), gender varchar(10), birthdate text, "
+                + "date_created date, fhir text, PRIMARY KEY (id))");
+        PreparedStatement pstmt = connection.prepareStatement("INSERT INTO " + tablename + " VALUES(?,?,?,?,?,?,?)");
+        pstmt.setString(1, patient.getId());
+        pstmt.setString(2, "Homer");
+        pstmt.setString(3, "Simpson");
+        pstmt.setString(4, "male");
+        pstmt.setString(5, "1951-05-15");
+        pstmt.setDate(6, new java.sql.Date(patient.getMeta().getLastUpdated().getTime()));
+        pstmt.setString(7, FHIRPatientProcessor.parseFHIR(patient));
+        pstmt.executeUpdate();
+        connection.close();
+
+        // Start up migrates the table into the partitions
+        pda.onStartUp();
+        ResultSet res = pda.getDbConnection().getMetaData().getTables(null, null, tablename, null);
+        assertFalse(res.next());
+        assertEquals(1, count(partitionName(monthsAgo(2))));
+        assertEquals(1, pda.search(new HashMap<String, String>(), pda.getDbConnection()).length());
+    }
+
+    @Test
+    public void testMigrateFromPartitions() throws JSONException, SQLException {
+        pda.addPatient(createPatient(monthsAgo(2)), pda.getDbConnection());
+        pda.addPatient(createPatient(new Date()), pda.getDbConnection());
+
+        // Start up with partitioning turned off migrates the partitions back into the table
+        pda.getDbConnection().close();
+        ReflectionTestUtils.setField(pda, "partitioned", false);
+        try {
+            pda.onStartUp();
+            assertTrue(getPartitions(pda.getDbConnection()).isEmpty());
+            assertEquals(2, count(tablename));
+            assertEquals(2, pda.search(new HashMap<String, String>(), pda.getDbConnection()).length());
+
+            // New patients are found through the view over the table, also after the next start up
+            assertTrue(pda.addPatient(createPatient(new Date()), pda.getDbConnection()));
+            assertEquals(3, pda.search(new HashMap<String, String>(), pda.getDbConnection()).length());
+
+            pda.getDbConnection().close();
+            pda.onStartUp();
+            assertEquals(3, pda.search(new HashMap<String, String>(), pda.getDbConnection()).length());
+        } finally {
+            ReflectionTestUtils.setField(pda, "partitioned", true);
+        }
+    }
+
+    private Patient createPatient(Date dateCreated) throws JSONException {
+        JSONObject json = input.getJSONObject(0);
+        PatientInput pat = new PatientInput(json.getString("firstname"), json.getString("lastname"),
+            json.getString("gender"), LocalDate.parse(json.getString("birthdate")));
+        Patient patient = FHIRPatientProcessor.createFHIRPatient(pat);
+        patient.getMeta().setLastUpdated(dateCreated);
+        return patient;
+    }
+
+    private int count(String table) throws SQLException {
+        String sql = "SELECT COUNT(*) AS count FROM " + table;
+        return pda.getDbConnection().createStatement().executeQuery(sql).getInt("count");
+    }
+
+    private List<String> getPartitions(Connection connection) throws SQLException {
+        List<String> partitions = new ArrayList<String>();
+        ResultSet res = connection.createStatement().executeQuery(
+            "SELECT name FROM sqlite_master WHERE type = 'table' AND name LIKE '" + tablename + "\\_%' ESCAPE '\\'");
+        while (res.next())
+            partitions.add(res.getString("name"));
+        return partitions;
+    }
+
+    private String partitionName(Date date) {
+        return tablename + "_"
+                + YearMonth.from(date.toInstant().atZone(ZoneId.systemDefault())).format(DateTimeFormatter.ofPattern("yyyyMM"));
+    }
+
+    private static Date monthsAgo(int months) {
+        return Date.from(LocalDate.now().minusMonths(months).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
+}
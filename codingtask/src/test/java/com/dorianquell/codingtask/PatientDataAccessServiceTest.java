@@ -4,8 +4,11 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.sql.Connection;
@@ -15,6 +18,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
@@ -32,7 +36,10 @@ import org.springframework.boot.test.context.SpringBootTest;
 
 import com.dorianquell.codingtask.dao.PatientDataAccessService;
 import com.dorianquell.codingtask.model.PatientInput;
+import com.dorianquell.codingtask.monitoring.SearchProfile;
+import com.dorianquell.codingtask.monitoring.SlowRequestLog;
 import com.dorianquell.codingtask.processor.FHIRPatientProcessor;
+import com.dorianquell.codingtask.processor.StreamingPatientParser;
 
 @SpringBootTest
 public class PatientDataAccessServiceTest {
@@ -46,6 +53,9 @@ public class PatientDataAccessServiceTest {
     @Autowired
     PatientDataAccessService pda;
 
+    @Autowired
+    SlowRequestLog slowRequestLog;
+
     private static JSONArray input;
 
     @BeforeAll
@@ -127,6 +137,27 @@ public class PatientDataAccessServiceTest {
         assertTrue(1 == result.getInt("count"));
     }
 
+    @Test
+    public void testUpdatePatientsFromStream() throws JSONException, SQLException, IOException {
+        // Homer is stored, Bart is underaged
+        InputStream in = new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8));
+        StreamingPatientParser.Result stored = StreamingPatientParser.parse(in,
+            patient -> pda.updatePatient(patient, pda.getDbConnection()));
+        assertEquals(1, stored.getStored());
+        assertEquals(1, stored.getRejected());
+
+        // Streaming Homer again replaces him
+        in = new ByteArrayInputStream(input.getJSONObject(0).toString().getBytes(StandardCharsets.UTF_8));
+        StreamingPatientParser.parse(in, patient -> pda.updatePatient(patient, pda.getDbConnection()));
+
+        Map<String, String> searchParameters = new HashMap<String, String>();
+        searchParameters.put("lastname", "Simpson");
+        JSONArray result = pda.search(searchParameters, pda.getDbConnection());
+        assertEquals(1, result.length());
+        assertEquals("Homer", result.getJSONObject(0).getJSONArray("name").getJSONObject(0).getJSONArray("given").get(0));
+        assertEquals("1951-05-15", result.getJSONObject(0).getString("birthDate"));
+    }
+
     @Test
     public void testGetPatient() throws JSONException, SQLException {
         JSONObject json = input.getJSONObject(0);
@@ -187,6 +218,42 @@ public class PatientDataAccessServiceTest {
         assertTrue(pda.deletePatient("123", pda.getDbConnection()));
     }
 
+    @Test
+    public void testDeletePatients() throws SQLException, JSONException {
+        JSONObject json = input.getJSONObject(0);
+
+        // Add three patients - more than one deletion chunk
+        PatientInput pat = new PatientInput(json.getString("firstname"), json.getString("lastname"),
+            json.getString("gender"), LocalDate.parse(json.getString("birthdate")));
+        Patient patient = FHIRPatientProcessor.createFHIRPatient(pat);
+        Patient patient2 = FHIRPatientProcessor.createFHIRPatient(pat);
+        Patient patient3 = FHIRPatientProcessor.createFHIRPatient(pat);
+
+        pda.addPatient(patient, pda.getDbConnection());
+        pda.addPatient(patient2, pda.getDbConnection());
+        pda.addPatient(patient3, pda.getDbConnection());
+
+        // Delete two existing and one non-existing patient
+        assertEquals(2,
+            pda.deletePatients(Arrays.asList(patient.getId(), patient2.getId(), "123"), pda.getDbConnection()));
+
+        String sql = "SELECT COUNT(*) AS count FROM " + tablename;
+        ResultSet result = pda.getDbConnection().createStatement().executeQuery(sql);
+        assertTrue(1 == result.getInt("count"));
+
+        // Search criteria without any valid parameter must not delete anything
+        Map<String, String> searchParameters = new HashMap<String, String>();
+        searchParameters.put("invalid", "male");
+        assertEquals(0, pda.deletePatients(searchParameters, pda.getDbConnection()));
+
+        // Delete the remaining patient by search criteria
+        searchParameters.put("lastname", "Simpson");
+        assertEquals(1, pda.deletePatients(searchParameters, pda.getDbConnection()));
+
+        result = pda.getDbConnection().createStatement().executeQuery(sql);
+        assertTrue(0 == result.getInt("count"));
+    }
+
     @Test
     public void testSearch() throws JSONException, SQLException {
         JSONObject json = input.getJSONObject(0);
@@ -218,6 +285,56 @@ public class PatientDataAccessServiceTest {
         assertTrue(2 == pda.search(searchParameters, pda.getDbConnection()).length());
     }
     
+    @Test
+    public void testSearchProfile() throws JSONException, SQLException {
+        JSONObject json = input.getJSONObject(0);
+
+        // Add patient
+        PatientInput pat = new PatientInput(json.getString("firstname"), json.getString("lastname"),
+            json.getString("gender"), LocalDate.parse(json.getString("birthdate")));
+        pda.addPatient(FHIRPatientProcessor.createFHIRPatient(pat), pda.getDbConnection());
+
+        // Search with a profile
+        Map<String, String> searchParameters = new HashMap<String, String>();
+        searchParameters.put("lastname", "Simpson");
+        searchParameters.put("invalid", "ignored");
+        SearchProfile profile = slowRequestLog.startProfile();
+        String body = pda.search(searchParameters, pda.getDbConnection(), profile).toString(4);
+        profile.serialized(0, body.length());
+
+        assertEquals(1, profile.getRowCount());
+        assertTrue(profile.getTotalNanos() >= profile.getExecuteNanos() + profile.getFetchNanos());
+
+        // The threshold is 0 in the tests, so every search is logged - only with the valid parameter names
+        String entry = slowRequestLog.finish(profile, pda.getDbConnection());
+        assertTrue(entry.contains("rows=1"));
+        assertTrue(entry.contains("params=[lastname]"));
+        assertFalse(entry.contains("Simpson"));
+        assertTrue(entry.contains("plan=\"SCAN"));
+    }
+
+    @Test
+    public void testUnsampledSearchProfile() throws JSONException, SQLException {
+        JSONObject json = input.getJSONObject(0);
+        PatientInput pat = new PatientInput(json.getString("firstname"), json.getString("lastname"),
+            json.getString("gender"), LocalDate.parse(json.getString("birthdate")));
+        pda.addPatient(FHIRPatientProcessor.createFHIRPatient(pat), pda.getDbConnection());
+
+        // Searches which are not sampled are still logged, only without the per row split and the response size
+        Map<String, String> searchParameters = new HashMap<String, String>();
+        searchParameters.put("lastname", "Simpson");
+        SearchProfile profile = new SearchProfile(false);
+        pda.search(searchParameters, pda.getDbConnection(), profile);
+        profile.serialized(0);
+
+        String entry = slowRequestLog.finish(profile, pda.getDbConnection());
+        assertTrue(entry.contains("fetch_decode_ms="));
+        assertFalse(entry.contains("bytes="));
+        assertTrue(entry.contains("rows=1"));
+        assertTrue(entry.contains("params=[lastname]"));
+        assertTrue(entry.contains("plan=\"SCAN"));
+    }
+
     @Test
     public void testDeletePatientRecordsOlderThan() throws JSONException, SQLException, InterruptedException {
         JSONObject json = input.getJSONObject(0);
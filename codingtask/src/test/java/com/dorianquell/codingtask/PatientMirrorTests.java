@@ -0,0 +1,119 @@
+package com.dorianquell.codingtask;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.dorianquell.codingtask.dao.PatientMirror;
+
+public class PatientMirrorTests {
+
+    private PatientMirror mirror;
+
+    @BeforeEach
+    public void init() {
+        mirror = new PatientMirror();
+        mirror.put("1", "Homer", "Simpson", "male", "1951-05-15", 1000, "homer");
+        mirror.put("2", "Marge", "Simpson", "female", "1956-03-19", 2000, "marge");
+        mirror.put("3", "Ned", "Flanders", "male", "1950-01-01", 3000, "ned");
+    }
+
+    @Test
+    public void testSearch() {
+        // No parameters - all patients ordered by last name
+        assertEquals(List.of("ned", "homer", "marge"), search(new HashMap<String, String>()));
+
+        Map<String, String> searchParameters = new HashMap<String, String>();
+        searchParameters.put("gender", "male");
+        assertEquals(List.of("ned", "homer"), search(searchParameters));
+
+        // Invalid parameters are ignored
+        searchParameters.put("invalid", "value");
+        searchParameters.put("lastname", "Simpson");
+        assertEquals(List.of("homer"), search(searchParameters));
+
+        // Values are compared exactly like in the database
+        searchParameters.put("gender", "Male");
+        assertEquals(List.of(), search(searchParameters));
+
+        searchParameters.clear();
+        searchParameters.put("birthdate", "1956-03-19");
+        assertEquals(List.of("marge"), search(searchParameters));
+        searchParameters.put("birthdate", "19.03.1956");
+        assertEquals(List.of(), search(searchParameters));
+
+        // The day before 1970-01-01 is epoch day -1
+        mirror.put("4", "Maude", "Flanders", "female", "1969-12-31", 4000, "maude");
+        searchParameters.put("birthdate", "1969-12-31");
+        assertEquals(List.of("maude"), search(searchParameters));
+
+        searchParameters.clear();
+        searchParameters.put("id", "3");
+        assertEquals(List.of("ned"), search(searchParameters));
+
+        // Columns which are not mirrored have to be searched in the database
+        searchParameters.put("date_created", "3000");
+        assertNull(mirror.search(searchParameters));
+    }
+
+    @Test
+    public void testRemove() {
+        // Replaced by an update - patients with the same last name stay in insertion order like in the database
+        mirror.removeMatching("Homer", "Simpson", "male", "1951-05-15");
+        mirror.put("4", "Homer", "Simpson", "male", "1951-05-15", 4000, "homer2");
+        assertEquals(List.of("ned", "marge", "homer2"), search(new HashMap<String, String>()));
+
+        mirror.remove("2");
+        assertEquals(List.of("ned", "homer2"), search(new HashMap<String, String>()));
+
+        mirror.removeCreatedBefore(4000);
+        assertEquals(List.of("homer2"), search(new HashMap<String, String>()));
+        assertEquals(1, mirror.size());
+    }
+
+    @Test
+    public void testRemoveMatchingNullValues() {
+        mirror.put("4", null, "Simpson", null, "1980-01-01", 4000, "unnamed");
+
+        // Unknown and null values don't match patients without first name or gender, like in the database
+        mirror.removeMatching("Unknown", "Simpson", "male", "1980-01-01");
+        mirror.removeMatching(null, "Simpson", null, "1980-01-01");
+        mirror.removeMatching("Homer", "Simpson", "unknown", "1951-05-15");
+        assertEquals(4, mirror.size());
+
+        Map<String, String> searchParameters = new HashMap<String, String>();
+        searchParameters.put("birthdate", "1980-01-01");
+        assertEquals(List.of("unnamed"), search(searchParameters));
+    }
+
+    @Test
+    public void testCompaction() {
+        // Enough patients to grow and compact the table several times
+        for (int i = 0; i < 5000; i++)
+            mirror.put("p" + i, "First" + (i % 10), "Last" + (i % 100), "other", "1980-01-01", i, "p" + i);
+        for (int i = 0; i < 5000; i += 2)
+            mirror.remove("p" + i);
+
+        assertEquals(2503, mirror.size());
+        Map<String, String> searchParameters = new HashMap<String, String>();
+        searchParameters.put("lastname", "Last1");
+        searchParameters.put("firstname", "First1");
+        assertEquals(50, search(searchParameters).size());
+    }
+
+    private List<String> search(Map<String, String> searchParameters) {
+        List<String> result = new ArrayList<String>();
+        for (byte[] fhir : mirror.search(searchParameters))
+            result.add(new String(fhir, StandardCharsets.UTF_8));
+        return result;
+    }
+
+}
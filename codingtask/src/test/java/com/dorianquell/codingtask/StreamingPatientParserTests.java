@@ -0,0 +1,100 @@
+package com.dorianquell.codingtask;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.r4.model.Patient;
+import org.json.JSONException;
+import org.junit.jupiter.api.Test;
+
+import com.dorianquell.codingtask.model.PatientInput;
+import com.dorianquell.codingtask.model.PatientRecord;
+import com.dorianquell.codingtask.processor.FHIRPatientProcessor;
+import com.dorianquell.codingtask.processor.StreamingPatientParser;
+
+public class StreamingPatientParserTests {
+
+    @Test
+    public void testSameRecordsAsFHIRPatient() throws IOException, JSONException {
+        List<PatientInput> inputs = new ArrayList<PatientInput>();
+        inputs.add(new PatientInput("Homer", "Simpson", "male", LocalDate.parse("1951-05-15")));
+        inputs.add(new PatientInput(null, null, null, null));
+        inputs.add(new PatientInput("", "", " Male", LocalDate.parse("1956-03-19")));
+        inputs.add(new PatientInput("Marge", null, "FEMALE", LocalDate.parse("1956-03-19")));
+        inputs.add(new PatientInput("  ", "  ", "other", LocalDate.parse("1950-01-01")));
+        inputs.add(new PatientInput("Ned \"Diddly\"", "Flandérs", "diverse", LocalDate.parse("1950-01-01")));
+
+        List<PatientRecord> records = parse("[" + String.join(",", toJson(inputs)) + "]");
+        assertEquals(inputs.size(), records.size());
+
+        for (int i = 0; i < inputs.size(); i++) {
+            // Same ID and creation date as the streamed record
+            PatientRecord record = records.get(i);
+            Patient patient = FHIRPatientProcessor.createFHIRPatient(inputs.get(i));
+            patient.setId(record.getId());
+            patient.getMeta().setLastUpdated(record.getDateCreated());
+            PatientRecord expected = FHIRPatientProcessor.createPatientRecord(patient);
+
+            assertEquals(expected.toString(), record.toString());
+            assertEquals(expected.getFhir(), record.getFhir());
+        }
+    }
+
+    @Test
+    public void testInvalidPatients() throws IOException {
+        // A single patient, unknown fields are ignored
+        List<PatientRecord> records =
+                parse("{\"firstname\": \"Homer\", \"age\": 71, \"address\": {\"city\": \"Springfield\"}}");
+        assertEquals(1, records.size());
+        assertEquals("Homer", records.get(0).getFirstname());
+
+        // Invalid patients are rejected, the following patients are still read
+        records = new ArrayList<PatientRecord>();
+        StreamingPatientParser.Result result = StreamingPatientParser.parse(toStream("[{\"birthdate\": \"15.05.1951\"}, "
+                + "{\"firstname\": [\"Homer\"]}, 42, {\"firstname\": \"Marge\"}]"), records::add);
+        assertEquals(1, result.getStored());
+        assertEquals(3, result.getRejected());
+        assertEquals("Marge", records.get(0).getFirstname());
+
+        // Patients rejected by the store are counted as well
+        result = StreamingPatientParser.parse(toStream("[{}, {}]"), patient -> false);
+        assertEquals(0, result.getStored());
+        assertEquals(2, result.getRejected());
+
+        // Malformed json
+        assertThrows(IOException.class, () -> parse("[{\"firstname\": \"Homer\"}, {\"firstname\": "));
+        assertThrows(IOException.class, () -> parse("\"Homer\""));
+    }
+
+    private static List<PatientRecord> parse(String json) throws IOException {
+        List<PatientRecord> records = new ArrayList<PatientRecord>();
+        StreamingPatientParser.parse(toStream(json), records::add);
+        return records;
+    }
+
+    private static ByteArrayInputStream toStream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> toJson(List<PatientInput> inputs) {
+        List<String> json = new ArrayList<String>();
+        for (PatientInput input : inputs) {
+            json.add(String.format("{\"firstname\": %s, \"lastname\": %s, \"gender\": %s, \"birthdate\": %s}",
+                quote(input.getFirstname()), quote(input.getLastname()), quote(input.getGender()),
+                quote(input.getBirthdate() == null ? null : input.getBirthdate().toString())));
+        }
+        return json;
+    }
+
+    private static String quote(String value) {
+        return value == null ? "null" : "\"" + value.replace("\"", "\\\"") + "\"";
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.dorianquell.codingtask;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.dorianquell.codingtask.load.SyntheticPatientGenerator;
+import com.dorianquell.codingtask.model.PatientInput;
+
+public class SyntheticPatientGeneratorTests {
+
+    private static final LocalDate REFERENCE_DATE = LocalDate.of(2022, 4, 1);
+
+    @Test
+    public void testGenerateIsReproducible() {
+        List<PatientInput> first = new SyntheticPatientGenerator(7, 0.1, 0.1, REFERENCE_DATE).generate(100);
+        List<PatientInput> second = new SyntheticPatientGenerator(7, 0.1, 0.1, REFERENCE_DATE).generate(100);
+
+        // Same seed - same patients
+        assertEquals(first.toString(), second.toString());
+    }
+
+    @Test
+    public void testDuplicateAndUnderageRates() {
+        List<PatientInput> patients = new SyntheticPatientGenerator(7, 0.2, 0.1, REFERENCE_DATE).generate(10000);
+
+        Set<String> unique = new HashSet<String>();
+        int underage = 0;
+        for (PatientInput patient : patients) {
+            unique.add(patient.toString());
+            if (Period.between(patient.getBirthdate(), REFERENCE_DATE).getYears() < 18)
+                underage++;
+        }
+
+        // Rates should roughly match the configured ones
+        int duplicates = patients.size() - unique.size();
+        assertTrue(duplicates > 1800 && duplicates < 2200);
+        assertTrue(underage > 850 && underage < 1150);
+    }
+
+}
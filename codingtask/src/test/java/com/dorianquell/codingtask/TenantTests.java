@@ -0,0 +1,202 @@
+package com.dorianquell.codingtask;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+
+import org.hl7.fhir.r4.model.Patient;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+import com.dorianquell.codingtask.dao.PatientDataAccessService;
+import com.dorianquell.codingtask.model.PatientInput;
+import com.dorianquell.codingtask.processor.FHIRPatientProcessor;
+import com.dorianquell.codingtask.tenant.Tenant;
+import com.dorianquell.codingtask.tenant.TenantInterceptor;
+import com.dorianquell.codingtask.tenant.TenantRegistry;
+
+@SpringBootTest(properties = { "dbfile=patientdata-tenants.db", "tenantmaxopen=2", "tenantidletimeout=2",
+        "tenantconnections=2", "tenantrate=20", "tenants=clinic1, clinic2,busy,rate,lru1,lru2,lru3,slow,other,expired" })
+@AutoConfigureMockMvc
+public class TenantTests {
+
+    private static final String HOMER =
+            "{\"firstname\":\"Homer\",\"lastname\":\"Simpson\",\"gender\":\"male\",\"birthdate\":\"1951-05-15\"}";
+    private static final String MARGE =
+            "{\"firstname\":\"Marge\",\"lastname\":\"Simpson\",\"gender\":\"female\",\"birthdate\":\"1956-03-19\"}";
+
+    @Autowired
+    MockMvc mvc;
+
+    @Autowired
+    TenantRegistry registry;
+
+    @Autowired
+    PatientDataAccessService pda;
+
+    @BeforeAll
+    public static void deleteDBs() throws IOException {
+        // Start with empty databases for the default database and all tenants
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get("."), "patientdata-tenants*.db")) {
+            for (Path file : files)
+                Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testTenantsAreIsolated() throws Exception {
+        mvc.perform(put("/").header(TenantInterceptor.TENANT_HEADER, "clinic1").contentType(MediaType.APPLICATION_JSON)
+                .content(HOMER)).andExpect(status().isOk());
+        mvc.perform(put("/tenants/clinic2").contentType(MediaType.APPLICATION_JSON).content(HOMER))
+                .andExpect(status().isOk());
+        mvc.perform(put("/tenants/clinic2/bulk").contentType(MediaType.APPLICATION_JSON).content("[" + MARGE + "]"))
+                .andExpect(status().isOk());
+
+        assertEquals(1, search(get("/search").header(TenantInterceptor.TENANT_HEADER, "clinic1")));
+        assertEquals(2, search(get("/tenants/clinic2/search")));
+        assertEquals(0, search(get("/search")));
+
+        // The path prefix takes precedence over the header
+        assertEquals(2, search(get("/tenants/clinic2/search").header(TenantInterceptor.TENANT_HEADER, "clinic1")));
+
+        // Every tenant has its own database file
+        assertTrue(Files.exists(Paths.get("patientdata-tenants-clinic1.db")));
+        assertTrue(Files.exists(Paths.get("patientdata-tenants-clinic2.db")));
+
+        // Tenant IDs are part of the file name
+        mvc.perform(get("/search").header(TenantInterceptor.TENANT_HEADER, "../clinic1"))
+                .andExpect(status().isBadRequest());
+
+        // Tenants which are not configured don't get a database
+        mvc.perform(put("/tenants/clinic3").contentType(MediaType.APPLICATION_JSON).content(HOMER))
+                .andExpect(status().isNotFound());
+        assertFalse(Files.exists(Paths.get("patientdata-tenants-clinic3.db")));
+        assertNull(registry.getTenant("clinic3"));
+    }
+
+    @Test
+    public void testBudgets() throws Exception {
+        // Both connections of the tenant are in use
+        Tenant first = registry.acquire("busy");
+        Tenant second = registry.acquire("busy");
+        assertNotNull(second);
+        assertNull(registry.acquire("busy"));
+        mvc.perform(get("/search").header(TenantInterceptor.TENANT_HEADER, "busy"))
+                .andExpect(status().isTooManyRequests());
+        registry.release(first, 0, false);
+        registry.release(second, 0, false);
+        mvc.perform(get("/search").header(TenantInterceptor.TENANT_HEADER, "busy")).andExpect(status().isOk());
+
+        // The rate budget allows 20 requests per second
+        int accepted = 0;
+        for (int i = 0; i < 100; i++) {
+            Tenant tenant = registry.acquire("rate");
+            if (tenant != null) {
+                accepted++;
+                registry.release(tenant, 0, false);
+            }
+        }
+        assertTrue(accepted < 100);
+        JSONObject metrics = registry.getTenant("rate").getMetrics();
+        assertEquals(accepted, metrics.getLong("requests"));
+        assertEquals(100 - accepted, metrics.getLong("rejected"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedAndIdleClosing() throws Exception {
+        for (String id : new String[] { "lru1", "lru2", "lru3" })
+            registry.release(registry.acquire(id), 0, false);
+
+        // Only the two most recently used databases stay open
+        assertNull(registry.getTenant("lru1").getConnection());
+        assertNotNull(registry.getTenant("lru2").getConnection());
+        assertNotNull(registry.getTenant("lru3").getConnection());
+
+        // Idle databases are closed
+        Thread.sleep(2100);
+        registry.sweep();
+        assertNull(registry.getTenant("lru2").getConnection());
+        assertNull(registry.getTenant("lru3").getConnection());
+
+        // A closed database is opened again with the next request, the metrics are kept
+        mvc.perform(get("/tenants/lru1/search")).andExpect(status().isOk());
+        String metrics = mvc.perform(get("/metrics/tenants/lru1")).andExpect(status().isOk()).andReturn().getResponse()
+                .getContentAsString();
+        assertEquals(2, new JSONObject(metrics).getLong("opened"));
+        assertEquals(2, new JSONObject(metrics).getLong("requests"));
+        mvc.perform(get("/metrics/tenants/unknown")).andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void testOpeningDoesNotBlockOtherTenants() throws Exception {
+        registry.release(registry.acquire("slow"), 0, false);
+        Tenant slow = registry.getTenant("slow");
+
+        // While the database of one tenant is being opened, requests of other tenants are still served
+        Thread opening;
+        synchronized (slow.getOpenLock()) {
+            opening = new Thread(() -> {
+                try {
+                    registry.release(registry.acquire("slow"), 0, false);
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            opening.start();
+            while (opening.getState() != Thread.State.BLOCKED)
+                Thread.sleep(10);
+
+            mvc.perform(get("/tenants/other/search")).andExpect(status().isOk());
+        }
+        opening.join();
+        assertEquals(2, slow.getMetrics().getLong("requests"));
+    }
+
+    @Test
+    public void testCleanUpWhenOpened() throws Exception {
+        // A tenant database which was not opened for a long time still contains an expired patient
+        Connection connection = pda.openDatabase("patientdata-tenants-expired.db");
+        Patient expired = FHIRPatientProcessor
+                .createFHIRPatient(new PatientInput("Homer", "Simpson", "male", LocalDate.parse("1951-05-15")));
+        expired.getMeta().setLastUpdated(Date.from(
+            LocalDate.now().minusYears(2).atStartOfDay(ZoneId.systemDefault()).toInstant()));
+        pda.addPatient(expired, connection);
+        pda.addPatient(FHIRPatientProcessor
+                .createFHIRPatient(new PatientInput("Marge", "Simpson", "female", LocalDate.parse("1956-03-19"))),
+            connection);
+        connection.close();
+
+        // The clean up runs before the first request is served
+        assertEquals(1, search(get("/tenants/expired/search")));
+    }
+
+    private int search(RequestBuilder request) throws Exception {
+        String body = mvc.perform(request).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+        return new JSONArray(body).length();
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.dorianquell.codingtask.load;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.dorianquell.codingtask.model.PatientInput;
+import com.dorianquell.codingtask.model.PatientRecord;
+import com.dorianquell.codingtask.processor.FHIRPatientProcessor;
+import com.dorianquell.codingtask.processor.StreamingPatientParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+
+/**
+ * Compares the memory allocated per patient by the request binding + HAPI route and by the streaming parser. Both routes
+ * produce the records which are inserted into the database, the database itself is left out. Only run with the load
+ * profile: mvn test -Pload -Dtest=PatientIngestionBenchmark
+ */
+@Tag("load")
+public class PatientIngestionBenchmark {
+
+    // Same object mapper Spring Boot uses to bind the request body
+    private static final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json()
+            .modulesToInstall(new ParameterNamesModule()).featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build();
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long checksum;
+
+    @Test
+    public void testAllocations() throws IOException {
+        int patients = Integer.getInteger("load.patients", 20000);
+        List<PatientInput> inputs = new SyntheticPatientGenerator(Long.getLong("load.seed", 42), 0.05, 0.02)
+                .generate(patients);
+
+        // One request body per patient and one body containing all patients
+        List<byte[]> bodies = new ArrayList<byte[]>();
+        for (PatientInput input : inputs)
+            bodies.add(objectMapper.writeValueAsBytes(input));
+        byte[] bulk = objectMapper.writeValueAsBytes(inputs);
+
+        System.out.println(String.format("%-24s %16s %12s", "route", "bytes/patient", "us/patient"));
+        for (int round = 0; round < 2; round++) {
+            // The first round only warms up
+            boolean print = round == 1;
+            measure("databind+hapi", patients, print, () -> {
+                for (byte[] body : bodies) {
+                    PatientInput input = objectMapper.readValue(body, PatientInput.class);
+                    Patient patient = FHIRPatientProcessor.createFHIRPatient(input);
+                    consume(FHIRPatientProcessor.createPatientRecord(patient));
+                }
+            });
+            measure("streaming", patients, print, () -> {
+                for (byte[] body : bodies)
+                    StreamingPatientParser.parse(new ByteArrayInputStream(body), PatientIngestionBenchmark::consume);
+            });
+            measure("streaming bulk", patients, print, () -> {
+                StreamingPatientParser.Result result =
+                        StreamingPatientParser.parse(new ByteArrayInputStream(bulk), PatientIngestionBenchmark::consume);
+                assertEquals(patients, result.getStored());
+            });
+        }
+    }
+
+    private static void measure(String route, int patients, boolean print, Work work) throws IOException {
+        long thread = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        work.run();
+        long nanos = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        if (print)
+            System.out.println(String.format("%-24s %16d %12.2f", route, allocated / patients, nanos / 1e3 / patients));
+    }
+
+    /*
+     * Keeps the records from being optimized away
+     */
+    private static boolean consume(PatientRecord record) {
+        checksum += record.getFhir().length();
+        return true;
+    }
+
+    private interface Work {
+        void run() throws IOException;
+    }
+
+}
@@ -0,0 +1,290 @@
+package com.dorianquell.codingtask.load;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.dorianquell.codingtask.model.PatientInput;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Replays a mixed PUT/search/DELETE workload against a running PatientController at a target rate. Requests are scheduled
+ * open loop: each request has an intended start time and its latency is measured from that time, so a slow server shows up
+ * as growing latencies instead of silently lowering the request rate.
+ */
+public class PatientLoadDriver {
+
+    public enum Operation {
+        PUT, SEARCH, DELETE
+    }
+
+    private static final String STORED_PREFIX = "Patient stored with ID: ";
+
+    private final String baseUrl;
+    private final SyntheticPatientGenerator generator;
+    private final Random random;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+    // IDs of stored patients which can be deleted by the workload
+    private final ConcurrentLinkedQueue<String> deletableIds = new ConcurrentLinkedQueue<String>();
+
+    /**
+     * @param baseUrl
+     *            of the running service, e.g. http://localhost:8080
+     * @param generator
+     *            used for the patients of the PUT requests and the search parameters
+     * @param seed
+     *            for the choice of operations
+     */
+    public PatientLoadDriver(String baseUrl, SyntheticPatientGenerator generator, long seed) {
+        this.baseUrl = baseUrl;
+        this.generator = generator;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param ids
+     *            of already stored patients which the DELETE requests may use
+     */
+    public void addDeletableIds(Iterable<String> ids) {
+        ids.forEach(deletableIds::add);
+    }
+
+    /**
+     * Runs the workload and blocks until all requests are finished. Requests which are still in flight one minute after the
+     * last request was started are cancelled and counted as errors.
+     *
+     * @param targetRate
+     *            requests per second
+     * @param duration
+     *            how long requests are started
+     * @param putShare
+     *            share of PUT requests (0 to 1)
+     * @param deleteShare
+     *            share of DELETE requests (0 to 1), all other requests are searches
+     * @param threads
+     *            number of requests which can be in flight at the same time
+     * @return LoadReport with throughput, latencies and errors per operation
+     * @throws InterruptedException
+     */
+    public LoadReport run(double targetRate, Duration duration, double putShare, double deleteShare, int threads)
+            throws InterruptedException {
+        Map<Operation, LatencyRecorder> recorders = new EnumMap<Operation, LatencyRecorder>(Operation.class);
+        for (Operation operation : Operation.values())
+            recorders.put(operation, new LatencyRecorder());
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / targetRate);
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        long nextReport = start + TimeUnit.SECONDS.toNanos(10);
+
+        // The dispatcher creates all requests, so the generator and random number generator are only used by one thread
+        for (long intended = start; intended < end; intended += intervalNanos) {
+            long wait = intended - System.nanoTime();
+            if (wait > 0)
+                TimeUnit.NANOSECONDS.sleep(wait);
+
+            HttpRequest request;
+            Operation operation;
+            double r = random.nextDouble();
+            String id = r >= putShare && r < putShare + deleteShare ? deletableIds.poll() : null;
+            if (r < putShare) {
+                operation = Operation.PUT;
+                request = putRequest(generator.next());
+            } else if (id != null) {
+                operation = Operation.DELETE;
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "?id=" + encode(id))).DELETE().build();
+            } else {
+                operation = Operation.SEARCH;
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/search?lastname=" + generator.nextLastname()))
+                        .GET().build();
+            }
+
+            long intendedStart = intended;
+            recorders.get(operation).started();
+            executor.execute(() -> send(request, operation, intendedStart, recorders.get(operation)));
+
+            if (System.nanoTime() >= nextReport) {
+                System.out.println("Load progress: " + summary(recorders));
+                nextReport += TimeUnit.SECONDS.toNanos(10);
+            }
+        }
+
+        executor.shutdown();
+        if (!executor.awaitTermination(1, TimeUnit.MINUTES))
+            executor.shutdownNow();
+        // Requests finishing after this are not recorded anymore, so the report doesn't change while it is built
+        for (LatencyRecorder recorder : recorders.values())
+            recorder.close();
+        return new LoadReport(recorders, System.nanoTime() - start);
+    }
+
+    private void send(HttpRequest request, Operation operation, long intendedStart, LatencyRecorder recorder) {
+        boolean success = false;
+        try {
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            success = response.statusCode() == 200;
+            if (success && operation == Operation.PUT && response.body().startsWith(STORED_PREFIX))
+                deletableIds.add(response.body().substring(STORED_PREFIX.length()));
+        } catch (Exception e) {
+            // Counted as an error below
+        }
+        recorder.record(System.nanoTime() - intendedStart, success);
+    }
+
+    private HttpRequest putRequest(PatientInput patient) {
+        ObjectNode body = mapper.createObjectNode();
+        body.put("firstname", patient.getFirstname());
+        body.put("lastname", patient.getLastname());
+        body.put("gender", patient.getGender());
+        body.put("birthdate", patient.getBirthdate().toString());
+        return HttpRequest.newBuilder(URI.create(baseUrl)).header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofString(body.toString())).build();
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String summary(Map<Operation, LatencyRecorder> recorders) {
+        long count = 0, errors = 0;
+        for (LatencyRecorder recorder : recorders.values()) {
+            count += recorder.finished();
+            errors += recorder.errors();
+        }
+        return count + " requests, " + errors + " errors";
+    }
+
+    /**
+     * Collects the latencies of one operation. PUT requests which are rejected because the patient is underaged count as
+     * errors, so the error rate of PUT requests includes the configured underage rate. Requests which didn't finish before
+     * the recorder was closed count as errors without a latency.
+     */
+    static class LatencyRecorder {
+
+        private long[] latencies = new long[1024];
+        private int started;
+        private int count;
+        private int errors;
+        private int unfinished;
+        private boolean closed;
+
+        synchronized void started() {
+            started++;
+        }
+
+        synchronized void record(long latencyNanos, boolean success) {
+            if (closed)
+                return;
+            if (count == latencies.length)
+                latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = latencyNanos;
+            if (!success)
+                errors++;
+        }
+
+        /*
+         * Stops recording, all started requests which are not recorded yet are unfinished
+         */
+        synchronized void close() {
+            closed = true;
+            unfinished = started - count;
+        }
+
+        /*
+         * Number of finished requests, only these have a latency
+         */
+        synchronized int finished() {
+            return count;
+        }
+
+        synchronized int count() {
+            return count + unfinished;
+        }
+
+        synchronized int errors() {
+            return errors + unfinished;
+        }
+
+        synchronized int unfinished() {
+            return unfinished;
+        }
+
+        synchronized long[] sorted() {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
+    /**
+     * Result of a load run
+     */
+    public static class LoadReport {
+
+        private final Map<Operation, LatencyRecorder> recorders;
+        private final long elapsedNanos;
+
+        LoadReport(Map<Operation, LatencyRecorder> recorders, long elapsedNanos) {
+            this.recorders = recorders;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @param operation
+         *            to get the error rate for, null for all operations
+         * @return share of requests (0 to 1) which failed or did not return 200
+         */
+        public double errorRate(Operation operation) {
+            long count = 0, errors = 0;
+            for (Map.Entry<Operation, LatencyRecorder> entry : recorders.entrySet()) {
+                if (operation == null || operation == entry.getKey()) {
+                    count += entry.getValue().count();
+                    errors += entry.getValue().errors();
+                }
+            }
+            return count == 0 ? 0 : (double) errors / count;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            double seconds = elapsedNanos / 1e9;
+            report.append(String.format("%-8s %8s %10s %10s %10s %10s %8s %10s%n", "op", "count", "req/s", "p50 ms",
+                "p99 ms", "p999 ms", "errors", "unfinished"));
+            for (Map.Entry<Operation, LatencyRecorder> entry : recorders.entrySet()) {
+                long[] sorted = entry.getValue().sorted();
+                report.append(String.format("%-8s %8d %10.1f %10.2f %10.2f %10.2f %7.2f%% %10d%n", entry.getKey(),
+                    sorted.length, sorted.length / seconds, percentile(sorted, 0.5), percentile(sorted, 0.99),
+                    percentile(sorted, 0.999), errorRate(entry.getKey()) * 100, entry.getValue().unfinished()));
+            }
+            return report.toString();
+        }
+
+        /**
+         * Nearest rank percentile in milliseconds
+         */
+        private static double percentile(long[] sorted, double quantile) {
+            if (sorted.length == 0)
+                return 0;
+            int rank = (int) Math.ceil(quantile * sorted.length) - 1;
+            return sorted[Math.max(0, rank)] / 1e6;
+        }
+    }
+
+}
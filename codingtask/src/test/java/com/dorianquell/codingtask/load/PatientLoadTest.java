@@ -0,0 +1,77 @@
+package com.dorianquell.codingtask.load;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import com.dorianquell.codingtask.dao.PatientDataAccessService;
+import com.dorianquell.codingtask.load.PatientLoadDriver.LoadReport;
+
+/**
+ * Load and soak test, only run with the load profile: mvn test -Pload
+ *
+ * The workload can be configured with system properties, e.g. -Dload.rate=500 -Dload.duration=3600 for a one hour soak
+ * test. See the README for all properties.
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = { "dbfile=patientdata-load.db" })
+public class PatientLoadTest {
+
+    @Value("${dbfile}")
+    private String dbfile;
+
+    @Value("${tablename}")
+    private String tablename;
+
+    @Value("${viewname}")
+    private String viewname;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    PatientDataAccessService pda;
+
+    @Test
+    public void testMixedWorkload() throws SQLException, InterruptedException {
+        long seed = Long.getLong("load.seed", 42);
+        SyntheticPatientGenerator generator = new SyntheticPatientGenerator(seed,
+            Double.parseDouble(System.getProperty("load.duplicaterate", "0.05")),
+            Double.parseDouble(System.getProperty("load.underagerate", "0.02")));
+
+        // Start with a fresh table pre-populated with synthetic patients
+        pda.getDbConnection().close();
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbfile);
+        connection.createStatement().executeUpdate("DROP VIEW IF EXISTS " + viewname);
+        connection.createStatement().executeUpdate("DROP TABLE IF EXISTS " + tablename);
+        connection.close();
+        pda.onStartUp();
+        List<String> ids = generator.populate(pda, Integer.getInteger("load.patients", 2000), pda.getDbConnection());
+
+        PatientLoadDriver driver = new PatientLoadDriver("http://localhost:" + port, generator, seed);
+        driver.addDeletableIds(ids);
+        LoadReport report = driver.run(Double.parseDouble(System.getProperty("load.rate", "100")),
+            Duration.ofSeconds(Long.getLong("load.duration", 30)),
+            Double.parseDouble(System.getProperty("load.putshare", "0.3")),
+            Double.parseDouble(System.getProperty("load.deleteshare", "0.1")), Integer.getInteger("load.threads", 16));
+
+        System.out.println(report);
+
+        // Rejected PUTs are expected for underaged patients, all other requests should succeed
+        assertTrue(report.errorRate(PatientLoadDriver.Operation.SEARCH) == 0);
+        assertTrue(report.errorRate(PatientLoadDriver.Operation.DELETE) == 0);
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.dorianquell.codingtask.load;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.dorianquell.codingtask.dao.PatientDataAccessService;
+import com.dorianquell.codingtask.dao.PatientMirror;
+
+/**
+ * Compares the memory needed per patient and the search latencies of the in-memory mirror with the SQL search, only run
+ * with the load profile: mvn test -Pload -Dtest=PatientMirrorBenchmark
+ */
+@Tag("load")
+@SpringBootTest(properties = { "dbfile=patientdata-benchmark.db" })
+public class PatientMirrorBenchmark {
+
+    @Value("${dbfile}")
+    private String dbfile;
+
+    @Value("${tablename}")
+    private String tablename;
+
+    @Value("${viewname}")
+    private String viewname;
+
+    @Autowired
+    PatientDataAccessService pda;
+
+    @Test
+    public void testMirrorAgainstSQL() throws SQLException {
+        long seed = Long.getLong("load.seed", 42);
+        int patients = Integer.getInteger("load.patients", 10000);
+        int queries = Integer.getInteger("load.queries", 2000);
+        SyntheticPatientGenerator generator = new SyntheticPatientGenerator(seed, 0.05, 0.02);
+
+        // Start with a fresh table pre-populated with synthetic patients
+        pda.getDbConnection().close();
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbfile);
+        connection.createStatement().executeUpdate("DROP VIEW IF EXISTS " + viewname);
+        connection.createStatement().executeUpdate("DROP TABLE IF EXISTS " + tablename);
+        connection.close();
+        pda.onStartUp();
+        List<String> ids = generator.populate(pda, patients, pda.getDbConnection());
+
+        // Memory needed by the mirror
+        long before = usedMemory();
+        PatientMirror mirror = PatientMirror.load(pda.getDbConnection(), viewname);
+        long after = usedMemory();
+        ResultSet res = pda.getDbConnection().createStatement()
+                .executeQuery("SELECT AVG(LENGTH(fhir)) AS fhir FROM " + tablename);
+        System.out.println(String.format("Mirror: %d patients, %.0f bytes per patient (%.0f bytes of FHIR json)",
+            mirror.size(), (double) (after - before) / mirror.size(), res.getDouble("fhir")));
+
+        // Search latencies of both paths for the same queries
+        Random random = new Random(seed);
+        Map<String, List<Map<String, String>>> workloads = new LinkedHashMap<String, List<Map<String, String>>>();
+        workloads.put("id", new ArrayList<Map<String, String>>());
+        workloads.put("lastname", new ArrayList<Map<String, String>>());
+        workloads.put("gender+lastname", new ArrayList<Map<String, String>>());
+        for (int i = 0; i < queries; i++) {
+            workloads.get("id").add(Map.of("id", ids.get(random.nextInt(ids.size()))));
+            workloads.get("lastname").add(Map.of("lastname", generator.nextLastname()));
+            workloads.get("gender+lastname")
+                    .add(Map.of("gender", random.nextBoolean() ? "male" : "female", "lastname", generator.nextLastname()));
+        }
+
+        System.out.println(String.format("%-16s %-6s %10s %10s", "query", "path", "p50 ms", "p99 ms"));
+        for (Map.Entry<String, List<Map<String, String>>> workload : workloads.entrySet()) {
+            // Both paths have to return the same patients
+            Map<String, String> first = workload.getValue().get(0);
+            assertEquals(pda.search(first, pda.getDbConnection()).toString(), searchMirror(mirror, first).toString());
+
+            benchmark(workload.getKey(), "sql", workload.getValue(), p -> pda.search(p, pda.getDbConnection()));
+            benchmark(workload.getKey(), "mirror", workload.getValue(), p -> searchMirror(mirror, p));
+        }
+    }
+
+    private static void benchmark(String query, String path, List<Map<String, String>> workload,
+            Function<Map<String, String>, JSONArray> search) {
+        // Warm up
+        for (Map<String, String> searchParameters : workload)
+            search.apply(searchParameters);
+
+        long[] latencies = new long[workload.size()];
+        for (int i = 0; i < latencies.length; i++) {
+            long start = System.nanoTime();
+            search.apply(workload.get(i));
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        System.out.println(String.format("%-16s %-6s %10.3f %10.3f", query, path,
+            latencies[latencies.length / 2] / 1e6, latencies[(int) (latencies.length * 0.99)] / 1e6));
+    }
+
+    /*
+     * Same result as the search of the DAO
+     */
+    private static JSONArray searchMirror(PatientMirror mirror, Map<String, String> searchParameters) {
+        JSONArray result = new JSONArray();
+        try {
+            for (byte[] fhir : mirror.search(searchParameters))
+                result.put(new JSONObject(new String(fhir, StandardCharsets.UTF_8)));
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        return result;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
@@ -0,0 +1,172 @@
+package com.dorianquell.codingtask.load;
+
+import java.sql.Connection;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.hl7.fhir.r4.model.Patient;
+
+import com.dorianquell.codingtask.dao.PatientDataAccessService;
+import com.dorianquell.codingtask.model.PatientInput;
+import com.dorianquell.codingtask.processor.FHIRPatientProcessor;
+
+/**
+ * Generates reproducible synthetic patients. Given the same seed and reference date the generator always returns the same
+ * sequence of patients.
+ */
+public class SyntheticPatientGenerator {
+
+    // Names are ordered by frequency, earlier names are picked more often
+    private static final String[] FEMALE_NAMES = { "Anna", "Maria", "Emma", "Sophie", "Laura", "Julia", "Lena", "Sarah",
+            "Lisa", "Hannah", "Lea", "Mia", "Katharina", "Johanna", "Clara", "Marie", "Nina", "Paula", "Elena", "Greta" };
+
+    private static final String[] MALE_NAMES = { "Thomas", "Michael", "Andreas", "Peter", "Stefan", "Alexander", "Daniel",
+            "Jan", "Lukas", "Paul", "Felix", "Jonas", "Max", "David", "Simon", "Tobias", "Florian", "Tim", "Leon", "Elias" };
+
+    private static final String[] LAST_NAMES = { "Mueller", "Schmidt", "Schneider", "Fischer", "Weber", "Meyer", "Wagner",
+            "Becker", "Schulz", "Hoffmann", "Koch", "Richter", "Bauer", "Klein", "Wolf", "Schroeder", "Neumann", "Schwarz",
+            "Zimmermann", "Braun", "Krueger", "Hofmann", "Hartmann", "Lange", "Schmitt", "Werner", "Krause", "Meier",
+            "Lehmann", "Schmid", "Schulze", "Maier", "Koehler", "Herrmann", "Walter", "Koenig", "Mayer", "Huber", "Kaiser",
+            "Fuchs", "Peters", "Lang", "Scholz", "Moeller", "Weiss", "Jung", "Hahn", "Schubert", "Vogel", "Friedrich" };
+
+    private final Random random;
+    private final LocalDate referenceDate;
+    private final double duplicateRate;
+    private final double underageRate;
+
+    // All patients generated so far, used to create duplicates
+    private final List<PatientInput> generated = new ArrayList<PatientInput>();
+
+    /**
+     * @param seed
+     *            of the random generator
+     * @param duplicateRate
+     *            share of patients (0 to 1) which repeat an already generated patient
+     * @param underageRate
+     *            share of patients (0 to 1) which are younger than 18
+     */
+    public SyntheticPatientGenerator(long seed, double duplicateRate, double underageRate) {
+        this(seed, duplicateRate, underageRate, LocalDate.now());
+    }
+
+    /**
+     * @param seed
+     *            of the random generator
+     * @param duplicateRate
+     *            share of patients (0 to 1) which repeat an already generated patient
+     * @param underageRate
+     *            share of patients (0 to 1) which are younger than 18
+     * @param referenceDate
+     *            date the ages of the patients are calculated from
+     */
+    public SyntheticPatientGenerator(long seed, double duplicateRate, double underageRate, LocalDate referenceDate) {
+        this.random = new Random(seed);
+        this.duplicateRate = duplicateRate;
+        this.underageRate = underageRate;
+        this.referenceDate = referenceDate;
+    }
+
+    /**
+     * @return the next synthetic patient
+     */
+    public PatientInput next() {
+        if (!generated.isEmpty() && random.nextDouble() < duplicateRate) {
+            PatientInput original = generated.get(random.nextInt(generated.size()));
+            return new PatientInput(original.getFirstname(), original.getLastname(), original.getGender(),
+                original.getBirthdate());
+        }
+
+        String gender = nextGender();
+        String firstname;
+        if (gender.equals("female"))
+            firstname = pick(FEMALE_NAMES);
+        else if (gender.equals("male"))
+            firstname = pick(MALE_NAMES);
+        else
+            firstname = random.nextBoolean() ? pick(FEMALE_NAMES) : pick(MALE_NAMES);
+
+        PatientInput patient = new PatientInput(firstname, pick(LAST_NAMES), gender, nextBirthdate());
+        generated.add(patient);
+        return patient;
+    }
+
+    /**
+     * @param count
+     *            number of patients to generate
+     * @return List with the next count synthetic patients
+     */
+    public List<PatientInput> generate(int count) {
+        List<PatientInput> patients = new ArrayList<PatientInput>(count);
+        for (int i = 0; i < count; i++)
+            patients.add(next());
+        return patients;
+    }
+
+    /**
+     * Stores the next count synthetic patients in the database. Duplicates update the original patient and underaged
+     * patients are rejected, the same way it happens for PUT requests.
+     * 
+     * @param pda
+     *            used to store the patients
+     * @param count
+     *            number of patients to generate
+     * @param connection
+     *            to the database
+     * @return List with the IDs of all stored patients
+     */
+    public List<String> populate(PatientDataAccessService pda, int count, Connection connection) {
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            Patient patient = FHIRPatientProcessor.createFHIRPatient(next());
+            if (pda.updatePatient(patient, connection))
+                ids.add(patient.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * @return a random last name, following the same distribution as the generated patients
+     */
+    public String nextLastname() {
+        return pick(LAST_NAMES);
+    }
+
+    /**
+     * Roughly follows the gender distribution of an adult population
+     */
+    private String nextGender() {
+        double r = random.nextDouble();
+        if (r < 0.505)
+            return "female";
+        if (r < 0.99)
+            return "male";
+        if (r < 0.997)
+            return "other";
+        return "unknown";
+    }
+
+    /**
+     * Adults are mostly of working age with a thinning tail up to 100 years, underaged patients are evenly spread
+     */
+    private LocalDate nextBirthdate() {
+        int age;
+        if (random.nextDouble() < underageRate)
+            age = random.nextInt(18);
+        else if (random.nextDouble() < 0.8)
+            age = 18 + random.nextInt(50);
+        else
+            age = 68 + (int) Math.min(32, Math.abs(random.nextGaussian() * 12));
+        return referenceDate.minusYears(age).minusDays(1 + random.nextInt(364));
+    }
+
+    /**
+     * Picks an element following a Zipf like distribution - the first elements are picked the most
+     */
+    private String pick(String[] values) {
+        double r = random.nextDouble();
+        return values[(int) (values.length * r * r)];
+    }
+
+}